@@ -0,0 +1,56 @@
+package com.example.websocketsql;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding one 30 Hz input message, as GameHandler does for every client; the tree-model variant is
+ * the previous implementation, kept as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputDecodeBenchmark {
+    private static final String INPUT = "{\"type\":\"input\",\"name\":\"player-one\",\"seq\":1234,\"throttle\":1,\"steer\":-0.5,"
+        + "\"jump\":false,\"boost\":true,\"brake\":false,\"boostLock\":false,\"ack\":5678}";
+
+    private final JsonFactory factory = new JsonFactory();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ClientMessage message = new ClientMessage();
+
+    @Benchmark
+    public int streaming() {
+        message.decode(factory, INPUT, "player-one");
+        return message.input.seq;
+    }
+
+    @Benchmark
+    public int treeModel() throws Exception {
+        JsonNode node = mapper.readTree(INPUT);
+        node.get("type").asText();
+        node.get("name").asText();
+        int seq = node.get("seq").asInt();
+        node.get("throttle").asDouble(0.0);
+        node.get("steer").asDouble(0.0);
+        node.get("jump").asBoolean(false);
+        node.get("boost").asBoolean(false);
+        node.get("brake").asBoolean(false);
+        node.get("ack").asLong(-1);
+        return seq;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.websocketsql;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One running-round Match.tick(), including serialization and handing frames to the outboxes.
+ * The tick budget is 33 ms for every match on a shard, so per-match cost is what decides matches per core.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchTickBenchmark {
+    @Param({"2", "4", "8", "16"})
+    int players;
+
+    @Param({"false", "true"})
+    boolean binary;
+
+    private MatchTickEngine engine;
+    private SessionSender sender;
+    private GameRepository repo;
+    private Match match;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        // The tick still logs to stdout; keep that cost but not the output
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        engine = new MatchTickEngine(1);
+        engine.shutdown();
+        sender = new SessionSender(64, 1 << 20, 2000, "drop", 1);
+        // One repository (and position writer thread) for every iteration's match
+        repo = new GameRepository();
+    }
+
+    // A fresh match per iteration so the three-minute round never ends mid-measurement
+    @Setup(Level.Iteration)
+    public void setupMatch() {
+        match = new Match(repo, engine, sender);
+        // Ticked here, not by the engine
+        engine.release(match);
+        ClientSession[] clients = new ClientSession[players];
+        for (int i = 0; i < players; i++) {
+            BenchSession s = new BenchSession();
+            clients[i] = ClientSession.of(s);
+            clients[i].binary = binary;
+            match.addPlayer("p" + i, s);
+        }
+        // Spawn the cars now rather than on the first measured tick
+        match.applyCommands();
+        InputSlot in = new InputSlot();
+        for (int i = 0; i < players; i++) {
+            in.seq = 1;
+            in.throttle = (i % 2 == 0) ? 1 : -0.5;
+            in.steer = (i % 3) - 1;
+            match.updateInput(clients[i], in);
+        }
+        match.skipCountdown();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        repo.shutdown();
+        sender.shutdown();
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void tick() {
+        match.tick();
+    }
+}
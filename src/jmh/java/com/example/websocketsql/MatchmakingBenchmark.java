@@ -0,0 +1,92 @@
+package com.example.websocketsql;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MatchManager.enqueue() with several connection threads joining at once. Each operation queues two
+ * players and then disconnects both again, as GameHandler does on close, so the number of live matches
+ * and registered sessions stays bounded. Joins only hand a ticket to the Matchmaker, which pairs in the
+ * background; a player it already paired is removed from the match instead.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MatchmakingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Lobby {
+        MatchTickEngine engine;
+        SessionSender sender;
+        SessionRegistry sessions;
+        GameRepository repo;
+        MatchManager manager;
+        PrintStream stdout;
+
+        @Setup
+        public void setup() {
+            stdout = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            engine = new MatchTickEngine(1);
+            // Matches are only created and removed here, never ticked
+            engine.shutdown();
+            sender = new SessionSender(64, 1 << 20, 2000, "drop", 1);
+            sessions = new SessionRegistry();
+            repo = new GameRepository();
+            manager = new MatchManager(repo, engine, sender, sessions);
+        }
+
+        @TearDown
+        public void tearDown() {
+            manager.shutdown();
+            repo.shutdown();
+            sender.shutdown();
+            System.setOut(stdout);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+        final String prefix = "t" + THREADS.incrementAndGet() + "-";
+        int next;
+    }
+
+    @Benchmark
+    public void enqueuePair(Lobby lobby, Client client) {
+        String a = client.prefix + client.next++;
+        String b = client.prefix + client.next++;
+        BenchSession sa = new BenchSession(), sb = new BenchSession();
+        lobby.sessions.opened(sa);
+        lobby.sessions.opened(sb);
+        lobby.manager.enqueue(a, sa);
+        lobby.manager.enqueue(b, sb);
+        disconnect(lobby, a, sa);
+        disconnect(lobby, b, sb);
+    }
+
+    private static void disconnect(Lobby lobby, String name, BenchSession session) {
+        String player = lobby.sessions.closed(session);
+        if (player == null) return;
+        lobby.manager.removePlayerFromMatch(player);
+        lobby.sessions.unbind(player, ClientSession.of(session));
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.websocketsql;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The shared PhysicsWorld on its own: per-entity integration steps, and a whole world step at
+ * several car counts with scripted inputs (no sessions or serialization).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhysicsBenchmark {
+    private static final PhysicsWorld.Step STEP = PhysicsWorld.Step.TUNED;
+
+    private PhysicsWorld single;
+    private PhysicsWorld.Ball ball;
+    private final InputSlot input = new InputSlot();
+    private int step;
+
+    @Setup
+    public void setup() {
+        single = new PhysicsWorld(1);
+        single.addCar("bench", 520, 300, 0);
+        ball = new PhysicsWorld.Ball();
+        input.seq = 1;
+        input.throttle = 1;
+        input.boost = true;
+    }
+
+    @State(Scope.Thread)
+    public static class World {
+        @Param({"2", "8", "32", "200"})
+        int cars;
+
+        PhysicsWorld world;
+        int step;
+
+        @Setup
+        public void setup() {
+            world = new PhysicsWorld();
+            for (int i = 0; i < cars; i++) world.addCar("c" + i, 180 + (i * 97) % 700, 100 + (i * 53) % 400, i);
+        }
+    }
+
+    @Benchmark
+    public double applyInput() {
+        // Alternate steering so the car keeps turning inside the field instead of pinning to a wall
+        input.steer = ((step++ >> 5) & 1) == 0 ? 1 : -1;
+        single.setInput(0, input);
+        single.applyInput(0, STEP);
+        if (single.boostFuel[0] < 10) single.boostFuel[0] = 100;
+        return single.x[0];
+    }
+
+    @Benchmark
+    public int worldStep(World w) {
+        int phase = w.step++;
+        PhysicsWorld world = w.world;
+        for (int i = 0, n = world.count; i < n; i++) {
+            world.inSeq[i] = phase;
+            world.inThrottle[i] = 1;
+            world.inSteer[i] = ((phase >> 4) & 1) == 0 ? 0.5 : -0.5;
+            world.inBoost[i] = (phase & 63) < 8;
+        }
+        return w.world.step(STEP, null);
+    }
+
+    @Benchmark
+    public double ballUpdate() {
+        if (Math.abs(ball.vx) < 1) { ball.vx = 600; ball.vy = -300; ball.vz = 60; }
+        ball.update(STEP);
+        return ball.x;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.websocketsql;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning one tick's state into bytes: the JSON string text clients get, and the binary
+ * keyframe / delta binary clients get.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+    @Param({"2", "16"})
+    int players;
+
+    private MatchTickEngine engine;
+    private SessionSender sender;
+    private GameRepository repo;
+    private Match match;
+    private SnapshotCodec codec;
+    private long tick;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() {
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        engine = new MatchTickEngine(1);
+        engine.shutdown();
+        sender = new SessionSender(64, 1 << 20, 2000, "drop", 1);
+        repo = new GameRepository();
+        match = new Match(repo, engine, sender);
+        engine.release(match);
+        for (int i = 0; i < players; i++) match.addPlayer("p" + i, new BenchSession());
+        match.applyCommands();
+        codec = new SnapshotCodec();
+        fill(tick++);
+    }
+
+    @TearDown
+    public void tearDown() {
+        repo.shutdown();
+        sender.shutdown();
+        System.setOut(stdout);
+    }
+
+    private void fill(long t) {
+        SnapshotCodec.Snapshot snap = codec.begin(0, t, t * 33L, 1, 0, 0, 0, 180_000, 520 + t % 50, 300, 0, players);
+        for (int i = 0; i < players; i++) {
+            snap.put(i, 100 + i * 40 + (t % 7), 200 + i * 10, 0, 0.01 * t, (int) t, 100);
+        }
+    }
+
+    @Benchmark
+    public String json() {
+        return match.buildStateJson(System.currentTimeMillis(), 0, 180_000);
+    }
+
+    @Benchmark
+    public byte[] binaryKeyframe() {
+        fill(tick++);
+        return codec.keyframe();
+    }
+
+    @Benchmark
+    public byte[] binaryDelta() {
+        fill(tick++);
+        return codec.frameFor(tick - 2);
+    }
+}
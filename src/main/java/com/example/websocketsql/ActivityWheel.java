@@ -0,0 +1,145 @@
+package com.example.websocketsql;
+
+import java.util.List;
+
+/**
+ * Inactivity timeouts on a hierarchical timing wheel.
+ * Time is counted in coarse ticks that advance() moves forward. Activity is a plain write of the current tick
+ * into the entry (Entry.touch); the wheel never hears about it. Each entry sits in the slot of the tick it would
+ * time out at, if it saw no activity since it was filed. When that slot comes round the entry is either
+ * expired or filed again under its newer deadline, so a turn of the wheel only touches entries that were due,
+ * never every entry. Slots hold 64 ticks per level over four levels; an entry filed in a higher level moves
+ * down a level each time the level below wraps.
+ * Scheduling, cancelling and advancing hold the wheel's monitor; touch() does not.
+ */
+final class ActivityWheel {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    /** One tracked player or match. Owner is whatever the caller keys it by. */
+    static final class Entry {
+        final Object owner;
+        volatile long lastTick;
+        volatile long timeoutTicks;
+        // Also touched by touch(); a player's entry links to its match's entry
+        volatile Entry linked;
+        // Guarded by the wheel's monitor
+        long deadline;
+        Entry prev, next;
+        int level = -1, slot;
+
+        Entry(Object owner, long timeoutTicks) {
+            this.owner = owner;
+            this.timeoutTicks = timeoutTicks;
+        }
+
+        // Called on every input; skips the write when the tick has not moved, so hot entries stay shared in cache
+        void touch(long tick) {
+            if (lastTick != tick) lastTick = tick;
+            Entry l = linked;
+            if (l != null && l.lastTick != tick) l.lastTick = tick;
+        }
+
+        boolean isScheduled() { return level >= 0; }
+    }
+
+    private final Entry[][] wheel = new Entry[LEVELS][SLOTS];
+    private volatile long now;
+    private int size;
+
+    // Current coarse tick, for Entry.touch()
+    long now() { return now; }
+
+    synchronized int size() { return size; }
+
+    // Files a new entry as active right now
+    synchronized void schedule(Entry e) {
+        if (e.isScheduled()) return;
+        e.lastTick = now;
+        e.deadline = Math.max(now + 1, e.lastTick + e.timeoutTicks);
+        insert(e);
+        size++;
+    }
+
+    // Takes the entry off the wheel; no-op if it already expired
+    synchronized void cancel(Entry e) {
+        if (!e.isScheduled()) return;
+        unlink(e);
+        size--;
+    }
+
+    // Moves the wheel forward to `target`, adding each entry that timed out to `expired`.
+    // Returns how many entries were due (expired or filed again).
+    synchronized int advance(long target, List<Entry> expired) {
+        int due = 0;
+        while (now < target) {
+            long t = now + 1;
+            now = t;
+            // Entries in the next slot of a higher level come due within the next turn of the level below
+            for (int level = 1; level < LEVELS; level++) {
+                if ((t & ((1L << (BITS * level)) - 1)) != 0) break;
+                Entry e = detach(level, (int) ((t >>> (BITS * level)) & MASK));
+                while (e != null) {
+                    Entry next = e.next;
+                    insert(e);
+                    e = next;
+                }
+            }
+            Entry e = detach(0, (int) (t & MASK));
+            while (e != null) {
+                Entry next = e.next;
+                due++;
+                long deadline = e.lastTick + e.timeoutTicks;
+                if (deadline > t) {
+                    // Active since it was filed
+                    e.deadline = deadline;
+                    insert(e);
+                } else {
+                    e.next = null;
+                    size--;
+                    expired.add(e);
+                }
+                e = next;
+            }
+        }
+        return due;
+    }
+
+    private void insert(Entry e) {
+        long delta = Math.max(0, e.deadline - now);
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) level++;
+        // Beyond the top level: park in its farthest slot and re-check when it comes due
+        long at = level == LEVELS - 1 && delta >= 1L << (BITS * LEVELS) ? now + (1L << (BITS * LEVELS)) - 1 : e.deadline;
+        int slot = (int) ((at >>> (BITS * level)) & MASK);
+        Entry head = wheel[level][slot];
+        e.prev = null;
+        e.next = head;
+        if (head != null) head.prev = e;
+        wheel[level][slot] = e;
+        e.level = level;
+        e.slot = slot;
+    }
+
+    private void unlink(Entry e) {
+        if (e.prev != null) e.prev.next = e.next;
+        else wheel[e.level][e.slot] = e.next;
+        if (e.next != null) e.next.prev = e.prev;
+        e.prev = null;
+        e.next = null;
+        e.level = -1;
+    }
+
+    // Empties a slot and returns its entries as a list linked through next
+    private Entry detach(int level, int slot) {
+        Entry head = wheel[level][slot];
+        wheel[level][slot] = null;
+        for (Entry e = head; e != null; e = e.next) {
+            e.prev = null;
+            e.level = -1;
+        }
+        return head;
+    }
+}
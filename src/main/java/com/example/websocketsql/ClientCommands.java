@@ -0,0 +1,61 @@
+package com.example.websocketsql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What each client message type on /ws does, indexed by the type id ClientMessage decodes.
+ * Handlers are resolved once when GameHandler is built, so dispatching a message is an array load and a call.
+ * A new message type needs an id and wire name in ClientMessage and one on() call.
+ */
+final class ClientCommands {
+    interface Handler {
+        // player: the name bound to the connection (or named by the message); null only for handlers that allow it.
+        // Returns false to reject the message.
+        boolean handle(ClientSession cs, ClientMessage msg, String player);
+    }
+
+    static final class Command {
+        final int type;
+        final boolean needsPlayer;
+        final Handler handler;
+        final LongAdder handled = new LongAdder();
+
+        Command(int type, boolean needsPlayer, Handler handler) {
+            this.type = type;
+            this.needsPlayer = needsPlayer;
+            this.handler = handler;
+        }
+    }
+
+    private final Command[] byType = new Command[ClientMessage.TYPE_NAMES.length];
+
+    // Registers the handler for a type; needsPlayer rejects the message if no player is known for it
+    ClientCommands on(int type, boolean needsPlayer, Handler handler) {
+        if (byType[type] != null) throw new IllegalStateException("Duplicate handler for " + ClientMessage.TYPE_NAMES[type]);
+        byType[type] = new Command(type, needsPlayer, handler);
+        return this;
+    }
+
+    // Runs the decoded message; false if nothing handles it, it needs a player and has none, or the handler rejects it
+    boolean dispatch(ClientSession cs, ClientMessage msg) {
+        Command c = msg.type > 0 && msg.type < byType.length ? byType[msg.type] : null;
+        if (c == null) return false;
+        // Acts for the player bound at join (older clients without a join still name themselves)
+        String player = cs.playerName != null ? cs.playerName : msg.name;
+        if (c.needsPlayer && player == null) return false;
+        if (!c.handler.handle(cs, msg, player)) return false;
+        c.handled.increment();
+        return true;
+    }
+
+    // Messages handled per type
+    Map<String, Long> counts() {
+        Map<String, Long> m = new LinkedHashMap<>();
+        for (Command c : byType) {
+            if (c != null) m.put(ClientMessage.TYPE_NAMES[c.type], c.handled.sum());
+        }
+        return m;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.websocketsql;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Reusable decode target for the messages a client sends on /ws.
+ * Messages are read with Jackson's streaming parser straight into these fields, so an input message
+ * allocates no tree, no input object and (once the name is bound to the session) no strings.
+ */
+final class ClientMessage {
+    static final int UNKNOWN = 0, JOIN = 1, ACK = 2, INPUT = 3, BOOST_RESET = 4, BALL_JUMP = 5;
+    // Wire name of each type, indexed by id
+    static final String[] TYPE_NAMES = { null, "join", "ack", "input", "boostReset", "ballJump" };
+
+    int type;
+    String name;
+    boolean binaryProto;
+    // Matchmaking region asked for at join (null = default)
+    String region;
+    boolean hasAck;
+    long ack;
+    long tick;
+    final InputSlot input = new InputSlot();
+
+    // Returns false for anything that is not a single JSON object with a known type
+    boolean decode(JsonFactory factory, String payload, String boundName) {
+        type = UNKNOWN;
+        name = null;
+        binaryProto = false;
+        region = null;
+        hasAck = false;
+        ack = -1;
+        tick = -1;
+        input.clear();
+        try (JsonParser p = factory.createParser(payload)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return false;
+            String field;
+            while ((field = p.nextFieldName()) != null) {
+                JsonToken value = p.nextToken();
+                if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                    p.skipChildren();
+                    continue;
+                }
+                // Field names are interned by the parser's symbol table
+                switch (field) {
+                    case "type": type = typeOf(p); break;
+                    case "name":
+                        if (value != JsonToken.VALUE_STRING) return false;
+                        name = boundName != null && textEquals(p, boundName) ? boundName : p.getText();
+                        break;
+                    case "region": region = value == JsonToken.VALUE_STRING ? p.getText() : null; break;
+                    case "proto": binaryProto = value == JsonToken.VALUE_STRING && textEquals(p, "bin"); break;
+                    case "ack": hasAck = true; ack = p.getValueAsLong(-1); break;
+                    case "tick": tick = p.getValueAsLong(-1); break;
+                    case "seq": input.seq = p.getValueAsInt(0); break;
+                    case "throttle": input.throttle = p.getValueAsDouble(0.0); break;
+                    case "steer": input.steer = p.getValueAsDouble(0.0); break;
+                    case "jump": input.jump = p.getValueAsBoolean(false); break;
+                    case "boost": input.boost = p.getValueAsBoolean(false); break;
+                    case "brake": input.brake = p.getValueAsBoolean(false); break;
+                    default: break;
+                }
+            }
+            if (p.currentToken() != JsonToken.END_OBJECT) return false;
+        } catch (IOException ex) {
+            return false;
+        }
+        return type != UNKNOWN;
+    }
+
+    private static int typeOf(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.VALUE_STRING) return UNKNOWN;
+        // Names differ in length, so a mismatch is usually rejected without comparing characters
+        for (int t = 1; t < TYPE_NAMES.length; t++) {
+            if (textEquals(p, TYPE_NAMES[t])) return t;
+        }
+        return UNKNOWN;
+    }
+
+    // Compare the current string token without materializing it
+    private static boolean textEquals(JsonParser p, String s) throws IOException {
+        int len = p.getTextLength();
+        if (len != s.length()) return false;
+        char[] buf = p.getTextCharacters();
+        int off = p.getTextOffset();
+        for (int i = 0; i < len; i++) {
+            if (buf[off + i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.websocketsql;
+
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Per-connection game state that travels with a WebSocketSession.
+ * Stored as a session attribute so any component holding the session can reach it without a map lookup.
+ */
+public class ClientSession {
+    private static final String ATTR = "pancake.client";
+
+    /** Where the connection is in its life; moves forward by compare-and-set, CLOSED is final. */
+    public enum State { LOBBY, QUEUED, IN_MATCH, CLOSED }
+
+    public final WebSocketSession session;
+    private final AtomicReference<State> state = new AtomicReference<>(State.LOBBY);
+    // Player name bound at join; later messages from this connection act for this player only
+    volatile String playerName;
+    // Match this connection currently plays in (null in free play or the queue)
+    volatile Match match;
+    // Input slot of this connection's car in that match, set by the match's tick when the car spawns
+    volatile InputSlot input;
+    // Decode target for this connection's messages (only touched by the session's IO thread)
+    final ClientMessage message = new ClientMessage();
+    // true once the client asked for the binary snapshot protocol at join
+    volatile boolean binary = false;
+    // Which roster (match or free-play loop) and which version of it this client last received
+    volatile Object rosterOwner = null;
+    volatile int rosterVersion = -1;
+    // Last snapshot tick the client reported applying; deltas are encoded against it (-1 = keyframe)
+    volatile long ackTick = -1;
+    // Free-play interest cell and the loop tick the client entered it; only touched by the free-play tick
+    int aoiCell = -1;
+    long aoiSince = 0;
+    // Inactivity entry of the bound player, set by MatchManager when it starts tracking them (null before)
+    volatile ActivityWheel.Entry activity;
+    // RTT, jitter and the adaptive snapshot rate of this connection
+    final LinkStats link = new LinkStats();
+
+    // --- OUTBOX (driven by SessionSender) ---
+    final Queue<SessionSender.Frame> queue = new ConcurrentLinkedQueue<>();
+    final AtomicReference<SessionSender.Frame> latest = new AtomicReference<>();
+    final AtomicBoolean draining = new AtomicBoolean(false);
+    final AtomicInteger queuedFrames = new AtomicInteger();
+    final AtomicLong queuedBytes = new AtomicLong();
+    // State frames overwritten before they could be sent since the last successful state send
+    final AtomicInteger replacedStates = new AtomicInteger();
+    volatile boolean sendTimeoutApplied = false;
+
+    private ClientSession(WebSocketSession session) {
+        this.session = session;
+    }
+
+    public static ClientSession of(WebSocketSession session) {
+        Object cs = session.getAttributes().get(ATTR);
+        if (cs instanceof ClientSession) return (ClientSession) cs;
+        ClientSession created = new ClientSession(session);
+        Object prev = session.getAttributes().putIfAbsent(ATTR, created);
+        return prev instanceof ClientSession ? (ClientSession) prev : created;
+    }
+
+    public boolean isBinary() { return binary; }
+
+    public State state() { return state.get(); }
+
+    // Moves from `from` to `to`; false if the connection was in another state
+    boolean transition(State from, State to) {
+        return state.compareAndSet(from, to);
+    }
+
+    // Final state; returns the state the connection was in
+    State close() {
+        return state.getAndSet(State.CLOSED);
+    }
+
+    // Joined a match, coming from the lobby or the queue
+    void enterMatch(Match m) {
+        match = m;
+        State s;
+        while ((s = state.get()) != State.CLOSED && s != State.IN_MATCH) {
+            if (state.compareAndSet(s, State.IN_MATCH)) break;
+        }
+    }
+
+    // Left m (if that is still its match), back to the lobby
+    void leaveMatch(Match m) {
+        if (match != m) return;
+        match = null;
+        state.compareAndSet(State.IN_MATCH, State.LOBBY);
+    }
+
+    // A new connection of the same player takes over this one's match and place in the queue
+    void takeOver(ClientSession old) {
+        match = old.match;
+        State s = old.state();
+        if (s == State.QUEUED || s == State.IN_MATCH) state.compareAndSet(State.LOBBY, s);
+    }
+
+    // Frames waiting to be written to this client
+    public int outboxDepth() {
+        return queuedFrames.get() + (latest.get() != null ? 1 : 0);
+    }
+
+    void clearOutbox() {
+        queue.clear();
+        latest.set(null);
+        queuedFrames.set(0);
+        queuedBytes.set(0);
+    }
+
+    // Returns true if this client still needs the given roster before it can decode a snapshot
+    boolean needsRoster(Object owner, int version) {
+        return rosterOwner != owner || rosterVersion != version;
+    }
+
+    void rosterSent(Object owner, int version) {
+        rosterOwner = owner;
+        rosterVersion = version;
+        // A new roster invalidates whatever the client acknowledged before it
+        ackTick = -1;
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.websocketsql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a fixed-length simulation step on its own thread, paced by System.nanoTime().
+ * Steps are due on an exact grid (start + k * period), so scheduling errors never add up. Steps that came due
+ * while the thread was busy or paused run right away, back to back, but at most maxCatchUp in a row; anything
+ * further behind is skipped, and the game clock falls behind the wall clock (drift) instead of bursting.
+ * The thread parks until spinNanos before a step is due and spins for the rest, since a park alone can
+ * wake up tens of microseconds late.
+ */
+final class FixedStepLoop {
+    interface Step {
+        // dueNanos: when this step should have started, on the System.nanoTime() grid
+        void run(long dueNanos);
+    }
+
+    private final String name;
+    private final long periodNanos;
+    private final int maxCatchUp;
+    private final long spinNanos;
+    private final Step step;
+    private volatile boolean running;
+    private Thread thread;
+
+    // --- METRICS ---
+    private volatile long startNanos;
+    private final AtomicLong steps = new AtomicLong();
+    // Steps run back to back because the loop was behind
+    private final AtomicLong catchUpSteps = new AtomicLong();
+    // Steps that started after the next one was already due
+    private final AtomicLong missedDeadlines = new AtomicLong();
+    // Steps never run because the backlog exceeded maxCatchUp
+    private final AtomicLong skippedSteps = new AtomicLong();
+    private volatile long maxLateNanos;
+
+    FixedStepLoop(String name, long periodNanos, int maxCatchUp, long spinNanos, Step step) {
+        this.name = name;
+        this.periodNanos = periodNanos;
+        this.maxCatchUp = Math.max(1, maxCatchUp);
+        this.spinNanos = Math.max(0, spinNanos);
+        this.step = step;
+    }
+
+    synchronized void start() {
+        if (thread != null) return;
+        running = true;
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stops after the step in progress; does not wait for it
+    synchronized void stop() {
+        running = false;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        startNanos = next;
+        while (running) {
+            waitUntil(next);
+            int burst = 0;
+            long now;
+            while (running && (now = System.nanoTime()) - next >= 0) {
+                long late = now - next;
+                if (burst == maxCatchUp) {
+                    // Give up on the backlog rather than replay it all at once
+                    long behind = late / periodNanos + 1;
+                    skippedSteps.addAndGet(behind);
+                    next += behind * periodNanos;
+                    break;
+                }
+                if (late >= periodNanos) missedDeadlines.incrementAndGet();
+                if (burst > 0) catchUpSteps.incrementAndGet();
+                if (late > maxLateNanos) maxLateNanos = late;
+                try {
+                    step.run(next);
+                } catch (Throwable ex) {
+                    // Keep the loop alive
+                    ex.printStackTrace();
+                }
+                steps.incrementAndGet();
+                next += periodNanos;
+                burst++;
+            }
+        }
+    }
+
+    private void waitUntil(long deadline) {
+        while (running) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return;
+            if (remaining > spinNanos) LockSupport.parkNanos(remaining - spinNanos);
+            else Thread.onSpinWait();
+        }
+    }
+
+    long getSteps() { return steps.get(); }
+    long getCatchUpSteps() { return catchUpSteps.get(); }
+    long getMissedDeadlines() { return missedDeadlines.get(); }
+    long getSkippedSteps() { return skippedSteps.get(); }
+    long getMaxLateNanos() { return maxLateNanos; }
+
+    // How far game time (steps run) is behind wall time since the start; 0 while on schedule
+    long getDriftNanos() {
+        long start = startNanos;
+        if (start == 0) return 0;
+        return Math.max(0, System.nanoTime() - start - steps.get() * periodNanos);
+    }
+
+    void resetMaxLate() { maxLateNanos = 0; }
+
+    Map<String, Object> summary() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("steps", getSteps());
+        m.put("catchUpSteps", getCatchUpSteps());
+        m.put("missedDeadlines", getMissedDeadlines());
+        m.put("skippedSteps", getSkippedSteps());
+        m.put("driftMs", getDriftNanos() / 1_000_000.0);
+        m.put("maxLateMs", getMaxLateNanos() / 1_000_000.0);
+        return m;
+    }
+}
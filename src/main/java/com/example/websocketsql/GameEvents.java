@@ -0,0 +1,100 @@
+package com.example.websocketsql;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder events for the game server (see LOADTEST.md for recording and filtering them).
+ * Per-tick and per-send events default to a 1 ms threshold so a production recording only keeps the
+ * slow ones; lower it with a custom .jfc when every occurrence is needed. When recording is off an
+ * event costs a begin/end pair and a shouldCommit() check.
+ */
+final class GameEvents {
+    private GameEvents() {}
+
+    @Name("pancake.MatchTick")
+    @Label("Match Tick")
+    @Category({"Pancake League", "Tick"})
+    @Description("One tick of a match on the shared tick engine")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class MatchTick extends Event {
+        @Label("Match Id") String matchId;
+        @Label("Shard") int shard;
+        @Label("Players") int players;
+        @Label("Sessions") int sessions;
+        @Label("Tick Lag") @Description("How late the tick started against the engine schedule") @Timespan long lag;
+        @Label("Bytes Enqueued") @DataAmount long bytes;
+    }
+
+    @Name("pancake.GameLoopTick")
+    @Label("Free-Play Tick")
+    @Category({"Pancake League", "Tick"})
+    @Description("One tick of the free-play GameLoop")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class GameLoopTick extends Event {
+        @Label("Tick") long tick;
+        @Label("Players") int players;
+        @Label("Bytes Enqueued") @DataAmount long bytes;
+    }
+
+    @Name("pancake.SnapshotSerialize")
+    @Label("Snapshot Serialize")
+    @Category({"Pancake League", "Tick"})
+    @Description("Building a tick's JSON state and/or quantized binary snapshot")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class SnapshotSerialize extends Event {
+        @Label("Match Id") @Description("Null for the free-play loop") String matchId;
+        @Label("Tick") long tick;
+        @Label("Players") int players;
+        @Label("JSON Bytes") @DataAmount long jsonBytes;
+        @Label("Binary") boolean binary;
+    }
+
+    @Name("pancake.SessionSend")
+    @Label("Session Send")
+    @Category({"Pancake League", "Network"})
+    @Description("Writing one frame to a client socket")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class SessionSend extends Event {
+        @Label("Session Id") String sessionId;
+        @Label("Player") String player;
+        @Label("Match Id") String matchId;
+        @Label("Bytes") @DataAmount long bytes;
+        @Label("Binary") boolean binary;
+        @Label("Outbox Depth") @Description("Frames still waiting after this one") int outboxDepth;
+    }
+
+    @Name("pancake.MatchmakingPair")
+    @Label("Matchmaking Pair")
+    @Category({"Pancake League", "Matchmaking"})
+    @Description("Two queued players paired into a new match")
+    @StackTrace(false)
+    static final class MatchmakingPair extends Event {
+        @Label("Match Id") String matchId;
+        @Label("Player A") String playerA;
+        @Label("Player B") String playerB;
+        @Label("Queue Length") @Description("Players still waiting after the pairing") int queueLength;
+    }
+
+    @Name("pancake.StaleCleanup")
+    @Label("Stale Session Cleanup")
+    @Category({"Pancake League", "Matchmaking"})
+    @Description("One turn of the inactivity timer wheel that had entries due")
+    @StackTrace(false)
+    static final class StaleCleanup extends Event {
+        @Label("Entries Due") int entriesDue;
+        @Label("Players Removed") int playersRemoved;
+        @Label("Matches Removed") int matchesRemoved;
+    }
+}
@@ -1,193 +1,139 @@
 package com.example.websocketsql;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Component;
-import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.PongMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
-import java.io.IOException;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 public class GameHandler extends TextWebSocketHandler {
-    private final Map<String, WebSocketSession> sessionsByPlayer = new ConcurrentHashMap<>();
-    private final Map<String, PlayerInput> latestInput = new ConcurrentHashMap<>();
+    // Client messages are small; anything bigger is rejected before parsing
+    private static final int MAX_MESSAGE_CHARS = 4096;
+    private final SessionRegistry sessions;
     private final GameLoop gameLoop;
     private final MatchManager matchManager;
-    private final ObjectMapper mapper = new ObjectMapper();
-    private final java.util.concurrent.ExecutorService sendExecutor = java.util.concurrent.Executors.newFixedThreadPool(4, r -> { Thread t = new Thread(r, "ws-sender"); t.setDaemon(true); return t; });
+    private final JsonFactory jsonFactory = new JsonFactory();
+    // Messages dropped because they were oversized, malformed, of an unknown type or missing a player
+    private final AtomicLong rejectedMessages = new AtomicLong();
+    // Message type id -> handler
+    private final ClientCommands commands;
+    private final LobbyPresence presence;
+
+    @Override
+    public void afterConnectionEstablished(@NonNull WebSocketSession session) throws Exception {
+        sessions.opened(session);
+    }
 
     @Override
     public void afterConnectionClosed(@NonNull WebSocketSession session, @NonNull org.springframework.web.socket.CloseStatus status) throws Exception {
-        // Find player by session and remove
-        String playerToRemove = null;
-        for (Map.Entry<String, WebSocketSession> entry : sessionsByPlayer.entrySet()) {
-            if (entry.getValue().equals(session)) {
-                playerToRemove = entry.getKey();
-                break;
-            }
-        }
+        // Only the player's current connection takes the player out of the game
+        String playerToRemove = sessions.closed(session);
         if (playerToRemove != null) {
             System.out.println("[CLEANUP] WebSocket closed for player: " + playerToRemove);
-            removePlayer(playerToRemove);
+            gameLoop.removePlayer(playerToRemove);
             matchManager.removePlayerFromMatch(playerToRemove);
-            // Broadcast updated active player count to all lobby users
-            broadcastActivePlayerCount();
+            sessions.unbind(playerToRemove, ClientSession.of(session));
+            // Players get the new count with the next presence broadcast
+            presence.changed();
         }
     }
 
-    public GameHandler(GameLoop gameLoop, MatchManager matchManager) {
+    public GameHandler(GameLoop gameLoop, MatchManager matchManager, SessionRegistry sessions,
+                       LobbyPresence presence) {
+        this.sessions = sessions;
+        this.presence = presence;
         this.gameLoop = gameLoop;
         this.matchManager = matchManager;
+        this.commands = new ClientCommands()
+            .on(ClientMessage.JOIN, false, this::join)
+            .on(ClientMessage.ACK, false, (cs, msg, player) -> { cs.ackTick = msg.tick; return true; })
+            .on(ClientMessage.INPUT, true, this::input)
+            .on(ClientMessage.BOOST_RESET, true, this::boostReset)
+            .on(ClientMessage.BALL_JUMP, true, this::ballJump);
+    }
+
+    // Answer to a LinkMonitor ping: the payload is the System.nanoTime() the ping was written at
+    @Override
+    protected void handlePongMessage(@NonNull WebSocketSession session, @NonNull PongMessage message) {
+        java.nio.ByteBuffer payload = message.getPayload();
+        if (payload.remaining() != 8) return;
+        ClientSession.of(session).link.onPong(System.nanoTime() - payload.getLong(payload.position()));
     }
 
     @Override
-    @SuppressWarnings("null")
     protected void handleTextMessage(@NonNull WebSocketSession session, @NonNull org.springframework.web.socket.TextMessage message) throws Exception {
         String payload = message.getPayload();
-        System.out.println("[DEBUG] WebSocket message received: " + payload);
-        JsonNode node = mapper.readTree(payload);
-        String type = node.get("type").asText();
-        if ("join".equals(type)) {
-            String name = node.get("name").asText();
-            sessionsByPlayer.put(name, session);
-            // enqueue for matchmaking and assign session if match exists
-            matchManager.enqueue(name, session);
-            matchManager.assignSessionToMatch(name, session);
-            gameLoop.addPlayer(name); // keep global loop as fallback
-            matchManager.updatePlayerActivity(name);
-            // Broadcast updated active player count to all lobby users
-            broadcastActivePlayerCount();
-        } else if ("input".equals(type)) {
-            String name = node.get("name").asText();
-            int seq = node.has("seq") ? node.get("seq").asInt() : 0;
-            double throttle = node.get("throttle").asDouble(0.0);
-            double steer = node.get("steer").asDouble(0.0);
-            boolean jump = node.get("jump").asBoolean(false);
-            boolean boost = node.get("boost").asBoolean(false);
-            boolean brake = node.get("brake").asBoolean(false);
-            PlayerInput in = new PlayerInput(seq, throttle, steer, jump, boost, brake);
-            latestInput.put(name, in);
-            Match m = matchManager.getMatchFor(name);
-            if (m != null) {
-                m.updateInput(name, new Match.PlayerInput(seq, throttle, steer, jump, boost, brake));
-                matchManager.updatePlayerActivity(name);
-            } else {
-                gameLoop.updateInput(name, in);
-            }
-            matchManager.updatePlayerActivity(name);
-        } else if ("boostReset".equals(type)) {
-            String name = node.get("name").asText();
-            // Try to reset boost in match context first
-            Match m = matchManager.getMatchFor(name);
-            boolean found = false;
-            if (m != null) {
-                try {
-                    java.lang.reflect.Field playersField = m.getClass().getDeclaredField("players");
-                    playersField.setAccessible(true);
-                    Map<?,?> players = (Map<?,?>) playersField.get(m);
-                    Object playerState = players.get(name);
-                    if (playerState != null) {
-                        java.lang.reflect.Field boostField = playerState.getClass().getDeclaredField("boostFuel");
-                        boostField.setAccessible(true);
-                        boostField.set(playerState, 100.0);
-                        found = true;
-                    }
-                } catch (Exception ignored) {}
-                matchManager.updatePlayerActivity(name);
-            }
-            // If not in match, try global loop
-            if (!found) {
-                try {
-                    java.lang.reflect.Field playersField = gameLoop.getClass().getDeclaredField("players");
-                    playersField.setAccessible(true);
-                    Map<?,?> players = (Map<?,?>) playersField.get(gameLoop);
-                    Object player = players.get(name);
-                    if (player != null) {
-                        java.lang.reflect.Field boostField = player.getClass().getDeclaredField("boostFuel");
-                        boostField.setAccessible(true);
-                        boostField.set(player, 100.0);
-                    }
-                } catch (Exception ignored) {}
-            }
-            matchManager.updatePlayerActivity(name);
-        } else if ("ballJump".equals(type)) {
-            String name = node.get("name").asText();
-            Match m = matchManager.getMatchFor(name);
-            if (m != null) {
-                m.triggerBallJump();
-                matchManager.updatePlayerActivity(name);
-            }
-            matchManager.updatePlayerActivity(name);
+        ClientSession cs = ClientSession.of(session);
+        ClientMessage msg = cs.message;
+        if (payload.length() > MAX_MESSAGE_CHARS || !msg.decode(jsonFactory, payload, cs.playerName)) {
+            rejectedMessages.incrementAndGet();
+            return;
         }
+        if (!commands.dispatch(cs, msg)) rejectedMessages.incrementAndGet();
+    }
+
+    private boolean join(ClientSession cs, ClientMessage msg, String ignored) {
+        String name = msg.name;
+        if (name == null || name.isEmpty()) return false;
+        WebSocketSession session = cs.session;
+        // Opt in to binary snapshots; everything else stays JSON
+        if (msg.binaryProto) cs.binary = true;
+        sessions.bind(cs, name);
+        // enqueue for matchmaking and assign session if match exists
+        matchManager.enqueue(name, session, msg.region);
+        matchManager.assignSessionToMatch(name, session);
+        gameLoop.addPlayer(name, session); // keep global loop as fallback
+        // The joining player gets the count now, everyone else with the next presence broadcast
+        presence.joined(cs);
+        return true;
     }
 
-    public void broadcastState(String json) {
-        // Only broadcast global state to players NOT in a match
-        for (Map.Entry<String, WebSocketSession> e : sessionsByPlayer.entrySet()) {
-            String player = e.getKey();
-            // Only send if player is not in a match
-            if (matchManager.getMatchFor(player) != null) continue;
-            WebSocketSession s = e.getValue();
-            if (s == null) continue;
-            sendExecutor.submit(() -> {
-                synchronized (s) {
-                    try {
-                        @SuppressWarnings("null")
-                        TextMessage msg = new TextMessage((CharSequence) json);
-                        if (s.isOpen()) s.sendMessage(msg);
-                    } catch (IllegalStateException | IOException ex) {
-                        // Remove/close broken session to avoid blocking future broadcasts
-                        sessionsByPlayer.remove(player);
-                        latestInput.remove(player);
-                        try { s.close(); } catch (Exception ignored) {}
-                    }
-                }
-            });
+    private boolean input(ClientSession cs, ClientMessage msg, String name) {
+        if (msg.hasAck) cs.ackTick = msg.ack;
+        // The connection knows its match and car, so input needs no lookups
+        Match m = cs.match;
+        if (m != null) {
+            m.updateInput(cs, msg.input);
+        } else {
+            gameLoop.updateInput(name, msg.input);
         }
+        touchActivity(cs);
+        return true;
     }
 
-    // Broadcast the current active player count to all connected users (lobby and in-game)
-    public void broadcastActivePlayerCount() {
-        int activePlayers = sessionsByPlayer.size();
-        String json = String.format("{\"type\":\"activePlayerCount\",\"count\":%d}", activePlayers);
-        System.out.println("[DEBUG] broadcastActivePlayerCount: " + activePlayers + " active player(s)");
-        for (Map.Entry<String, WebSocketSession> e : sessionsByPlayer.entrySet()) {
-            String player = e.getKey();
-            WebSocketSession s = e.getValue();
-            if (s == null) continue;
-            sendExecutor.submit(() -> {
-                synchronized (s) {
-                    try {
-                        TextMessage msg = new TextMessage(json);
-                        if (s.isOpen()) s.sendMessage(msg);
-                    } catch (IllegalStateException | IOException ex) {
-                        sessionsByPlayer.remove(player);
-                        latestInput.remove(player);
-                        try { s.close(); } catch (Exception ignored) {}
-                    }
-                }
-            });
+    private boolean boostReset(ClientSession cs, ClientMessage msg, String name) {
+        // Try to reset boost in match context first
+        Match m = cs.match;
+        boolean found = false;
+        if (m != null) found = m.refillBoost(name);
+        // If not in match, try global loop
+        if (!found) {
+            gameLoop.refillBoost(name);
         }
+        touchActivity(cs);
+        return true;
     }
 
-    public void removePlayer(String name) {
-        sessionsByPlayer.remove(name);
-        latestInput.remove(name);
-        gameLoop.removePlayer(name);
+    private boolean ballJump(ClientSession cs, ClientMessage msg, String name) {
+        Match m = cs.match;
+        if (m != null) m.triggerBallJump();
+        touchActivity(cs);
+        return true;
     }
 
-    public static class PlayerInput {
-        public final int seq;
-        public final double throttle, steer;
-        public final boolean jump, boost, brake;
-        public PlayerInput(int seq, double throttle, double steer, boolean jump, boolean boost, boolean brake) {
-            this.seq = seq;
-            this.throttle = throttle; this.steer = steer; this.jump = jump; this.boost = boost; this.brake = brake;
-        }
+    // The player's inactivity entry hangs off the connection, so activity needs no map lookup
+    private void touchActivity(ClientSession cs) {
+        ActivityWheel.Entry e = cs.activity;
+        if (e != null) e.touch(matchManager.activityTick());
     }
+
+    public long getRejectedMessages() { return rejectedMessages.get(); }
+
+    // Messages handled per type
+    public Map<String, Long> getMessageCounts() { return commands.counts(); }
 }
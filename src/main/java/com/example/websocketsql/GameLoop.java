@@ -1,411 +1,372 @@
 package com.example.websocketsql;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.context.annotation.Lazy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import org.springframework.web.socket.WebSocketSession;
+
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.*;
 
 @Component
 public class GameLoop {
-    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-    private final Map<String, Player> players = new ConcurrentHashMap<>();
-    private final Map<String, PlayerInput> inputs = new ConcurrentHashMap<>();
+    // One free-play step per physics step, on a monotonic clock with bounded catch-up
+    private final FixedStepLoop clock;
+    // Published input per free-play player; also indexed by car slot in published[] for the tick
+    private final Map<String, InputSlot> inputs = new ConcurrentHashMap<>();
     private final GameRepository repo;
-    private final GameHandler handler;
-    private final MatchManager matchManager;
+    private final SessionSender sender;
     @SuppressWarnings("unused")
     private final ObjectMapper mapper = new ObjectMapper();
 
-    // Add a ball for single player practice
-    private Ball ball = new Ball();
+    // Free-play arena with a practice ball. Only the loop thread touches it: joins, leaves and boost refills
+    // are queued and applied at the start of the next tick.
+    private final PhysicsWorld world = new PhysicsWorld(16);
+    private final MatchCommands commands = new MatchCommands();
+    private InputSlot[] published = new InputSlot[world.capacity()];
+    private final InputSlot scratch = new InputSlot();
+    private final PhysicsWorld.Ball ball = world.ball;
     private long tick = 0;
-    private static final int BROADCAST_SKIP = 1; // send state every N ticks
+    // Step length and which steps send a snapshot (game.sim.hz / game.snapshot.hz)
+    private final TickRates rates;
+    // --- AREA OF INTEREST ---
+    // Each client gets the cars near its own cell; clients in the same cell share one encoding
+    private final InterestGrid interest;
+    // The connection of each car slot's player (null if it has none), set when the car spawns or the player
+    // joins again from a new connection, and moved with the car by removeCar()
+    private ClientSession[] clients = new ClientSession[world.capacity()];
+    private volatile int occupiedCells = 0;
+    // --- BINARY SNAPSHOTS ---
+    // Builds the cells' rosters; snapshots are encoded by each cell's own codec
+    private final SnapshotCodec codec = new SnapshotCodec();
+    // --- PROFILING ---
+    private final TickProfile profile = new TickProfile();
 
-    public GameLoop(GameRepository repo, @Lazy GameHandler handler, MatchManager matchManager) {
+    public GameLoop(GameRepository repo, SessionSender sender, TickRates rates,
+                    @Value("${game.aoi.radius:400}") double aoiRadius,
+                    @Value("${game.aoi.cell-size:260}") double aoiCellSize,
+                    @Value("${game.aoi.hysteresis:60}") double aoiHysteresis,
+                    @Value("${game.tick.max-catch-up:5}") int maxCatchUp,
+                    @Value("${game.tick.spin-us:100}") long spinMicros) {
         this.repo = repo;
-        this.handler = handler;
-        this.matchManager = matchManager;
+        this.sender = sender;
+        this.rates = rates;
+        this.interest = new InterestGrid(aoiCellSize, aoiRadius, aoiHysteresis);
+        this.clock = new FixedStepLoop("game-loop", rates.stepNanos, maxCatchUp,
+            TimeUnit.MICROSECONDS.toNanos(spinMicros), this::tick);
     }
 
     // profiling helpers
     public long getTick() { return tick; }
-    public int getPlayerCount() { return players.size(); }
+    public int getPlayerCount() { return world.count; }
+    TickProfile getProfile() { return profile; }
+    FixedStepLoop getClock() { return clock; }
     public int getQueueSize() { return repo.getQueueSize(); }
+    // Interest cells that had clients in the last broadcast
+    public int getOccupiedCells() { return occupiedCells; }
 
     @PostConstruct
     public void start() {
-        executor.scheduleAtFixedRate(this::tick, 0, 33, TimeUnit.MILLISECONDS); // ~30 Hz
+        clock.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        clock.stop();
     }
 
-    public void addPlayer(String name) {
-        players.putIfAbsent(name, Player.spawn(name));
+    // Takes the player in (or moves it to a new connection); the car spawns on the next tick
+    public void addPlayer(String name, WebSocketSession session) {
+        inputs.putIfAbsent(name, new InputSlot());
+        commands.offer(MatchCommands.ADD_PLAYER, name, session);
     }
 
     public void removePlayer(String name) {
-        players.remove(name);
-        inputs.remove(name);
+        if (inputs.remove(name) == null) return;
+        commands.offer(MatchCommands.REMOVE_PLAYER, name, null);
     }
 
-    public void updateInput(String name, GameHandler.PlayerInput in) {
+    public void updateInput(String name, InputSlot in) {
         if (in == null) return;
-        inputs.put(name, new PlayerInput(in.seq, in.throttle, in.steer, in.jump, in.boost, in.brake));
-        Player p = players.get(name);
-        if (p != null && in.jump) p.pendingJump = true;
+        InputSlot slot = inputs.get(name);
+        if (slot == null) return;
+        slot.publish(in);
+        if (in.jump) slot.latchJump();
+    }
+
+    // Refill a free-play player's boost on the next tick; false if the player is not in free play
+    public boolean refillBoost(String name) {
+        if (!inputs.containsKey(name)) return false;
+        commands.offer(MatchCommands.REFILL_BOOST, name, null);
+        return true;
+    }
+
+    private void tick(long dueNanos) {
+        applyCommands();
+        runTick(dueNanos);
+    }
+
+    // Joins, leaves and refills queued since the last tick, in the order they were made; loop thread only
+    private void applyCommands() {
+        MatchCommands.Command c;
+        while ((c = commands.poll()) != null) {
+            switch (c.op) {
+                case MatchCommands.ADD_PLAYER: spawn(c.name, c.client); break;
+                case MatchCommands.REMOVE_PLAYER: despawn(c.name); break;
+                case MatchCommands.REFILL_BOOST: {
+                    int slot = world.indexOf(c.name);
+                    if (slot >= 0) world.boostFuel[slot] = 100.0;
+                    break;
+                }
+                default: break;
+            }
+        }
+    }
+
+    private void spawn(String name, ClientSession cs) {
+        int slot = world.indexOf(name);
+        if (slot >= 0) {
+            if (cs != null) clients[slot] = cs;
+            return;
+        }
+        slot = world.addCarAtRandom(name);
+        if (published.length < world.capacity()) {
+            published = Arrays.copyOf(published, world.capacity());
+            clients = Arrays.copyOf(clients, world.capacity());
+        }
+        // The player's slot, unless it left again before this tick (its REMOVE_PLAYER follows)
+        InputSlot in = inputs.get(name);
+        published[slot] = in != null ? in : new InputSlot();
+        clients[slot] = cs;
+    }
+
+    private void despawn(String name) {
+        int slot = world.indexOf(name);
+        if (slot < 0) return;
+        int moved = world.removeCar(slot);
+        if (moved >= 0) {
+            published[slot] = published[moved];
+            clients[slot] = clients[moved];
+        }
+        published[world.count] = null;
+        clients[world.count] = null;
+        interest.carRemoved(slot, moved);
     }
 
-    private void tick() {
+    private void runTick(long dueNanos) {
         try {
+            GameEvents.GameLoopTick tickEvent = new GameEvents.GameLoopTick();
+            tickEvent.begin();
+            long bytes = 0;
             long t0 = System.nanoTime();
+            profile.record(TickProfile.Phase.LAG, Math.max(0, t0 - dueNanos));
+            long phase = t0;
             tick++;
-            double dt = 0.033; // seconds per tick (~33 ms)
-            StringBuilder sb = new StringBuilder();
-            sb.append('{');
-            sb.append("\"type\":\"state\",");
-            sb.append("\"match\":null,");
-            sb.append("\"tick\":").append(tick).append(',');
+            PhysicsWorld.Step step = rates.step;
 
+            // Only free-play cars take part; players in a match are simulated by their Match
             boolean anyPlayer = false;
-            for (Map.Entry<String, Player> e : players.entrySet()) {
-                String name = e.getKey();
-                if (matchManager != null && matchManager.getMatchFor(name) != null) continue;
+            int n = world.count;
+            for (int i = 0; i < n; i++) {
+                ClientSession cs = clients[i];
+                boolean active = cs == null || cs.match == null;
+                world.active[i] = active;
+                if (!active) continue;
                 anyPlayer = true;
-                Player p = e.getValue();
-                PlayerInput in = inputs.getOrDefault(name, new PlayerInput(0,0,0,false,false,false));
-                p.applyInput(in, dt);
-                p.lastAppliedSeq = in.seq;
-                repo.enqueuePosition(name, tick, p.x, p.y, p.z, p.vx, p.vy, p.vz);
+                InputSlot in = published[i];
+                in.readInto(scratch);
+                world.setInput(i, scratch);
+                if (in.takeJump()) world.pendingJump[i] = true;
             }
 
-            // --- Ball update and collision logic from Match.java ---
             if (anyPlayer) {
-                ball.update(dt);
-                // Ball hitbox scaling (Match.java logic)
-                double ballScale = 1.0 + Math.min(1.0, ball.z * 0.12);
-                double ballRadius = 20.0 * ballScale;
-                // Ball-wall collision (allow entry into goal zones, restrict only at outer canvas edges)
-                boolean inRightGoal = (ball.x > 920 && ball.y > 210 && ball.y < 390);
-                boolean inLeftGoal = (ball.x < 120 && ball.y > 210 && ball.y < 390);
-                double ballMaxX = inRightGoal ? 1040 : 1040 - ballRadius;
-                double ballMinX = inLeftGoal ? 0 : ballRadius;
-                int fieldLeft = 120, fieldRight = 1040 - 120, width = 1040;
-                if (ball.z > 6.5) {
-                    if (ball.x - ballRadius < fieldLeft) {
-                        ball.x = fieldLeft + ballRadius;
-                        ball.vx = Math.abs(ball.vx);
-                    } else if (ball.x + ballRadius > fieldRight) {
-                        ball.x = fieldRight - ballRadius;
-                        ball.vx = -Math.abs(ball.vx);
-                    }
-                } else {
-                    if (ball.x < ballMinX) { ball.x = ballMinX; ball.vx = -ball.vx * 0.8; }
-                    if (ball.x > ballMaxX) { ball.x = ballMaxX; ball.vx = -ball.vx * 0.8; }
-                }
-                if (ball.y < ballRadius) { ball.y = ballRadius; ball.vy = -ball.vy * 0.8; }
-                if (ball.y > 600 - ballRadius) { ball.y = 600 - ballRadius; ball.vy = -ball.vy * 0.8; }
-
-                // --- GREEN PATCH (CORNER) COLLISION LOGIC FOR BALL ---
-                double[][] patches = {
-                    {0, 0, 120, 120},           // top-left
-                    {920, 0, 120, 120},         // top-right
-                    {0, 480, 120, 120},         // bottom-left
-                    {920, 480, 120, 120}        // bottom-right
-                };
-                for (double[] patch : patches) {
-                    double px = patch[0], py = patch[1], pw = patch[2], ph = patch[3];
-                    double closestX = Math.max(px, Math.min(ball.x, px + pw));
-                    double closestY = Math.max(py, Math.min(ball.y, py + ph));
-                    double dx = ball.x - closestX, dy = ball.y - closestY;
-                    if ((dx * dx + dy * dy) <= (ballRadius * ballRadius)) {
-                        double len = Math.hypot(dx, dy);
-                        double nx = (len == 0) ? 1 : dx / len;
-                        double ny = (len == 0) ? 0 : dy / len;
-                        // Clamp to edge
-                        ball.x = closestX + nx * (ballRadius + 0.1);
-                        ball.y = closestY + ny * (ballRadius + 0.1);
-                        // Reflect and dampen normal velocity, keep tangent (like wall)
-                        double vdotn = ball.vx * nx + ball.vy * ny;
-                        double vnormx = nx * vdotn;
-                        double vnormy = ny * vdotn;
-                        double vtangx = ball.vx - vnormx;
-                        double vtangy = ball.vy - vnormy;
-                        double bounce = 0.5;
-                        double reflectedVnormx = -vnormx * bounce;
-                        double reflectedVnormy = -vnormy * bounce;
-                        ball.vx = vtangx + reflectedVnormx;
-                        ball.vy = vtangy + reflectedVnormy;
-                        break;
-                    }
-                }
-
-                // Now handle ball-player collision after all movement updates
-                for (Map.Entry<String, Player> e : players.entrySet()) {
-                    String name = e.getKey();
-                    if (matchManager != null && matchManager.getMatchFor(name) != null) continue;
-                    Player p = e.getValue();
-                    double dz = p.z - ball.z;
-                    double zThreshold = 3.0;
-                    if (Math.abs(dz) > zThreshold) continue;
-                    double pScale = 1.0 + Math.min(1.0, p.z * 0.12);
-                    double pRadius = 24.0 * pScale;
-                    double bScale = 1.0 + Math.min(1.0, ball.z * 0.12);
-                    double bRadius = 20.0 * bScale;
-                    double dx = ball.x - p.x, dy = ball.y - p.y;
-                    double carSpeed = Math.hypot(p.vx, p.vy);
-                    double minDist = pRadius + bRadius;
-                    double dist = Math.hypot(dx, dy);
-                    if (dist < minDist) {
-                        double nx = dx / dist;
-                        double ny = dy / dist;
-                        if (carSpeed > 400.0) {
-                            // High-speed: launch ball and slow car (jump)
-                            double vxNorm = p.vx / carSpeed;
-                            double vyNorm = p.vy / carSpeed;
-                            double transferVx = vxNorm * (carSpeed * 1.2);
-                            double transferVy = vyNorm * (carSpeed * 1.2);
-                            p.vx *= 0.1;
-                            p.vy *= 0.1;
-                            ball.vx += transferVx;
-                            ball.vy += transferVy;
-                            // Ball jump effect if hit hard and on ground
-                            if (ball.z <= 0.001) {
-                                ball.vz = 60; // or adjust for desired jump height
-                            }
-                        } else if (carSpeed > 200.0) {
-                            // Medium-speed: dramatic velocity transfer, no jump, car slows a lot
-                            double vxNorm = p.vx / carSpeed;
-                            double vyNorm = p.vy / carSpeed;
-                            double transferVx = vxNorm * (carSpeed * 1.1);
-                            double transferVy = vyNorm * (carSpeed * 1.1);
-                            p.vx *= 0.05;
-                            p.vy *= 0.05;
-                            ball.vx += transferVx;
-                            ball.vy += transferVy;
-                        } else {
-                            // Low-speed: use 2D elastic collision (equal mass)
-                            double rvx = ball.vx - p.vx;
-                            double rvy = ball.vy - p.vy;
-                            double relVelAlongNormal = rvx * nx + rvy * ny;
-                            if (relVelAlongNormal < 0) {
-                                double ballVn = ball.vx * nx + ball.vy * ny;
-                                double ballVt = -ball.vx * ny + ball.vy * nx;
-                                double carVn = p.vx * nx + p.vy * ny;
-                                double carVt = -p.vx * ny + p.vy * nx;
-                                double newBallVn = carVn;
-                                double newCarVn = ballVn;
-                                double bounce = 0.85;
-                                newBallVn *= bounce;
-                                newCarVn *= bounce;
-                                ball.vx = newBallVn * nx - ballVt * ny;
-                                ball.vy = newBallVn * ny + ballVt * nx;
-                                p.vx = newCarVn * nx - carVt * ny;
-                                p.vy = newCarVn * ny + carVt * nx;
-                            }
-                        }
-                        // Only push the ball away from the player; never modify the player's position
-                        ball.x = p.x + nx * minDist;
-                        ball.y = p.y + ny * minDist;
-                    }
+                // Same physics and order as a match; free play keeps no score, so goals are ignored
+                world.collideCars();
+                long collisionNanos = System.nanoTime() - phase;
+                phase = System.nanoTime();
+                world.stepBall(step, null);
+                phase = profile.mark(TickProfile.Phase.PHYSICS, phase);
+                world.stepCars(step);
+                for (int i = 0; i < n; i++) {
+                    if (world.active[i]) repo.enqueuePosition(world.name[i], tick, world.x[i], world.y[i], world.z[i], world.vx[i], world.vy[i], world.vz[i]);
                 }
+                phase = profile.mark(TickProfile.Phase.INPUT, phase);
+                world.collideBall();
+                profile.record(TickProfile.Phase.COLLISION, collisionNanos + (System.nanoTime() - phase));
+                phase = System.nanoTime();
             } else {
                 ball.reset();
             }
 
             // --- Output state ---
-            sb.append("\"ball\":{")
-                .append("\"x\":").append(ball.x).append(",\"y\":").append(ball.y).append(",\"z\":").append(ball.z).append("},");
-            sb.append("\"players\":[");
-            boolean first = true;
-            for (Map.Entry<String, Player> e : players.entrySet()) {
-                String name = e.getKey();
-                if (matchManager != null && matchManager.getMatchFor(name) != null) continue;
-                Player p = e.getValue();
-                if (!first) sb.append(','); first = false;
-                sb.append('{')
-                    .append("\"name\":\"").append(name).append("\",")
-                    .append("\"x\":").append(p.x).append(',')
-                    .append("\"y\":").append(p.y).append(',')
-                    .append("\"z\":").append(p.z).append(',')
-                    .append("\"angle\":").append(p.angle).append(',')
-                    .append("\"lastSeq\":").append(p.lastAppliedSeq).append(',')
-                    .append("\"boostFuel\":").append(p.boostFuel).append('}');
-            }
-            sb.append(']');
-            sb.append('}');
-            if (tick % BROADCAST_SKIP == 0) {
-                handler.broadcastState(sb.toString());
+            if (rates.sends(tick)) {
+                GameEvents.SnapshotSerialize serializeEvent = new GameEvents.SnapshotSerialize();
+                serializeEvent.begin();
+                int cells = assignCells();
+                boolean binary = false;
+                int jsonBytes = 0;
+                for (InterestGrid.Cell cell : interest.cells) {
+                    if (cell.protocols == 0) continue;
+                    cell.updateVisibility(world, interest.radius, interest.hysteresis);
+                    if ((cell.protocols & InterestGrid.PROTO_TEXT) != 0) {
+                        String json = buildStateJson(cell);
+                        cell.text = SessionSender.Frame.text(json);
+                        jsonBytes += json.length();
+                    }
+                    if ((cell.protocols & InterestGrid.PROTO_BINARY) != 0) {
+                        updateRoster(cell);
+                        fillSnapshot(cell);
+                        binary = true;
+                    }
+                }
+                occupiedCells = cells;
+                phase = profile.mark(TickProfile.Phase.SERIALIZE, phase);
+                serializeEvent.end();
+                if (serializeEvent.shouldCommit()) {
+                    serializeEvent.tick = tick;
+                    serializeEvent.players = world.count;
+                    serializeEvent.jsonBytes = jsonBytes;
+                    serializeEvent.binary = binary;
+                    serializeEvent.commit();
+                }
+                bytes = sendStates();
+                profile.mark(TickProfile.Phase.ENQUEUE, phase);
             }
             long t1 = System.nanoTime();
+            profile.record(TickProfile.Phase.TOTAL, t1 - t0);
+            tickEvent.end();
+            if (tickEvent.shouldCommit()) {
+                tickEvent.tick = tick;
+                tickEvent.players = world.count;
+                tickEvent.bytes = bytes;
+                tickEvent.commit();
+            }
             long ms = (t1 - t0) / 1_000_000;
             if (ms > 10) {
-                System.out.println("[GameLoop] tick=" + tick + " players=" + players.size() + " durationMs=" + ms + " dbQueue=" + repo.getQueueSize());
+                System.out.println("[GameLoop] tick=" + tick + " players=" + world.count + " durationMs=" + ms + " dbQueue=" + repo.getQueueSize());
             }
         } catch (Exception ex) {
             ex.printStackTrace();
         }
     }
-    // Ball class copied from Match.java
-    private static class Ball {
-        double x = 520, y = 300, vx = 0, vy = 0;
-        double z = 0, vz = 0;
-        void update(double dt) {
-            double speed = Math.hypot(vx, vy);
-            double minSpeed = 20.0; // units/second
-            if (speed > minSpeed) {
-                vx *= 0.985; // less friction for ball at high speeds
-                vy *= 0.985;
-            } else {
-                vx *= 0.995; // less friction for ball at low speeds
-                vy *= 0.995;
+    // Put every free-play client in its (sticky) interest cell and note which encodings each cell needs.
+    // Returns the number of occupied cells.
+    private int assignCells() {
+        interest.beginTick();
+        int occupied = 0;
+        for (int i = 0, n = world.count; i < n; i++) {
+            ClientSession cs = clients[i];
+            if (cs == null || !world.active[i]) continue;
+            int cell = interest.cellFor(cs.aoiCell, world.x[i], world.y[i]);
+            if (cell != cs.aoiCell) {
+                // Acks for snapshots of the previous cell say nothing about this cell's history
+                cs.aoiCell = cell;
+                cs.aoiSince = tick;
             }
-            x += vx * dt;
-            y += vy * dt;
-            // Ball jump/vertical physics (Match.java uses -150.0 * dt for gravity)
-            vz -= 150.0 * dt;
-            z += vz * dt;
-            if (z < 0) { z = 0; vz = 0; }
+            InterestGrid.Cell c = interest.cells[cell];
+            if (c.protocols == 0) occupied++;
+            c.protocols |= cs.isBinary() ? InterestGrid.PROTO_BINARY : InterestGrid.PROTO_TEXT;
         }
-        void reset() { x = 520; y = 300; vx = 0; vy = 0; z = 0; vz = 0; }
+        return occupied;
     }
 
-    private static class PlayerInput {
-        final int seq; final double throttle, steer; @SuppressWarnings("unused") final boolean jump, boost, brake;
-        PlayerInput(int seq, double t, double s, boolean j, boolean b, boolean br) { this.seq=seq; throttle=t; steer=s; jump=j; boost=b; brake=br; }
+    // Hand each client its cell's frame. Returns the bytes handed to session outboxes.
+    private long sendStates() {
+        long bytes = 0;
+        for (int i = 0, n = world.count; i < n; i++) {
+            ClientSession cs = clients[i];
+            if (cs == null || !world.active[i]) continue;
+            InterestGrid.Cell cell = interest.cells[cs.aoiCell];
+            if (cs.isBinary()) {
+                if (cs.needsRoster(cell, cell.rosterVersion)) {
+                    sender.sendReliable(cs, cell.rosterFrame);
+                    cs.rosterSent(cell, cell.rosterVersion);
+                    bytes += cell.rosterFrame.size;
+                }
+                long ack = cs.ackTick >= cs.aoiSince ? cs.ackTick : -1;
+                SessionSender.Frame frame = SessionSender.Frame.binary(cell.codec.frameFor(ack));
+                sender.sendState(cs, frame);
+                bytes += frame.size;
+            } else {
+                sender.sendState(cs, cell.text);
+                bytes += cell.text.size;
+            }
+        }
+        return bytes;
     }
 
-    private static class Player {
-        final String name;
-        double x,y, vx,vy, angle, z, vz; // z is vertical
-        int lastAppliedSeq = 0;
-        double boostFuel = 100.0;
-        // pending jump latch to avoid missed presses
-        boolean pendingJump = false;
-        boolean boostLocked = false;
+    // Game time of the current tick: steps run times the step length
+    private long serverMs() { return tick * rates.stepNanos / 1_000_000; }
 
-        private Player(String name) { this.name = name; }
+    private String buildStateJson(InterestGrid.Cell cell) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        sb.append("\"type\":\"state\",");
+        sb.append("\"match\":null,");
+        sb.append("\"tick\":").append(tick).append(',');
+        sb.append("\"serverMs\":").append(serverMs()).append(',');
+        sb.append("\"ball\":{")
+            .append("\"x\":").append(ball.x).append(",\"y\":").append(ball.y).append(",\"z\":").append(ball.z).append("},");
+        sb.append("\"players\":[");
+        boolean first = true;
+        // Only cars in range of the cell; players in a match are never visible
+        for (int i = 0, n = world.count; i < n; i++) {
+            if (!cell.visible[i]) continue;
+            if (!first) sb.append(','); first = false;
+            sb.append('{')
+                .append("\"name\":\"").append(world.name[i]).append("\",")
+                .append("\"x\":").append(world.x[i]).append(',')
+                .append("\"y\":").append(world.y[i]).append(',')
+                .append("\"z\":").append(world.z[i]).append(',')
+                .append("\"angle\":").append(world.angle[i]).append(',')
+                .append("\"lastSeq\":").append(world.lastAppliedSeq[i]).append(',')
+                .append("\"boostFuel\":").append(world.boostFuel[i]).append('}');
+        }
+        sb.append(']');
+        sb.append('}');
+        return sb.toString();
+    }
 
-        static Player spawn(String name) {
-            Player p = new Player(name);
-            p.x = Math.random()*400+100; p.y = Math.random()*200+100; p.angle = 0; return p;
+    private void fillSnapshot(InterestGrid.Cell cell) {
+        int n = cell.rosterSize;
+        SnapshotCodec.Snapshot snap = cell.codec.begin(SnapshotCodec.FLAG_FREE_PLAY, tick, serverMs(), cell.rosterVersion, 0, 0, 0, 0,
+            ball.x, ball.y, ball.z, n);
+        for (int k = 0; k < n; k++) {
+            int i = cell.rosterSlots[k];
+            snap.put(k, world.x[i], world.y[i], world.z[i], world.angle[i], world.lastAppliedSeq[i], world.boostFuel[i]);
         }
+    }
 
-        void applyInput(PlayerInput in, double dt) {
-            double forward = in.throttle;
-            boolean boostLockActive = false;
-            if (in.jump && z <= 0.001) {
-                boostLocked = true;
-            }
-            if (!in.boost) {
-                boostLocked = false;
-            }
-            if (in.boost && boostFuel > 0 && z > 0.001 && !boostLocked) {
-                boostLockActive = true;
-            }
-            double accelMag = 700.0 * forward * dt;
-            if (in.boost && boostFuel > 0 && !boostLocked) { accelMag += 800.0 * dt; boostFuel -= 40.0 * dt; }
-            if (in.brake) {
-                accelMag = 0;
-            }
-            double carRadius = 24.0;
-            double[][] patches = {
-                {0, 0, 120, 120},           // top-left
-                {920, 0, 120, 120},         // top-right
-                {0, 480, 120, 120},         // bottom-left
-                {920, 480, 120, 120}        // bottom-right
-            };
-            boolean blocked = false;
-            for (double[] patch : patches) {
-                double px = patch[0], py = patch[1], pw = patch[2], ph = patch[3];
-                double closestX = Math.max(px, Math.min(x, px + pw));
-                double closestY = Math.max(py, Math.min(y, py + ph));
-                double dx = x - closestX, dy = y - closestY;
-                if ((dx * dx + dy * dy) <= (carRadius * carRadius)) {
-                    double len = Math.hypot(dx, dy);
-                    double nx = (len == 0) ? 1 : dx / len;
-                    double ny = (len == 0) ? 0 : dy / len;
-                    x = closestX + nx * (carRadius + 0.1);
-                    y = closestY + ny * (carRadius + 0.1);
-                    double vdotn = vx * nx + vy * ny;
-                    double vnormx = nx * vdotn;
-                    double vnormy = ny * vdotn;
-                    double vtangx = vx - vnormx;
-                    double vtangy = vy - vnormy;
-                    double bounce = 0.5;
-                    double reflectedVnormx = -vnormx * bounce;
-                    double reflectedVnormy = -vnormy * bounce;
-                    vx = vtangx + reflectedVnormx;
-                    vy = vtangy + reflectedVnormy;
-                    break;
-                }
-            }
-            double facingX = Math.cos(angle);
-            double facingY = Math.sin(angle);
-            double regularSpeed = 700.0 * dt;
-            this.vx += facingX * accelMag;
-            this.vy += facingY * accelMag;
-            double speed = Math.hypot(this.vx, this.vy);
-            if (speed <= regularSpeed + 1.0) {
-                double proj = this.vx * facingX + this.vy * facingY;
-                this.vx = facingX * proj;
-                this.vy = facingY * proj;
-            }
-            if (Math.abs(forward) < 0.01 && speed <= regularSpeed + 1.0) {
-                this.vx *= 0.7;
-                this.vy *= 0.7;
-            }
-            if (in.brake) {
-                this.vx *= 0.85;
-                this.vy *= 0.85;
-                if (in.throttle != 0) {
-                    double slowSpeed = 180.0;
-                    this.vx = facingX * slowSpeed * Math.signum(in.throttle);
-                    this.vy = facingY * slowSpeed * Math.signum(in.throttle);
-                }
-            }
-            this.vx += facingX * accelMag;
-            this.vy += facingY * accelMag;
-            speed = Math.hypot(this.vx, this.vy);
-            if (speed <= regularSpeed + 1.0) {
-                double proj = this.vx * facingX + this.vy * facingY;
-                this.vx = facingX * proj;
-                this.vy = facingY * proj;
-            }
-            double steerFactor = 2.0 * (1.0 + speed / 300.0);
-            if (in.brake) {
-                steerFactor *= 2;
-            }
-            if (in.steer != 0) {
-                angle += in.steer * steerFactor * dt;
-            }
-            double damping = Math.max(0.0, 1.0 - 4.0 * dt);
-            this.vx *= damping; this.vy *= damping;
-            x += this.vx * dt; y += this.vy * dt;
-            double scale = 1.0 + Math.min(1.0, z * 0.12);
-            double radius = 20.0 * scale;
-            boolean inRightGoal = (x > 920 && y > 210 && y < 390);
-            boolean inLeftGoal = (x < 120 && y > 210 && y < 390);
-            double maxX = inRightGoal ? 1040 : 1040 - radius;
-            double minX = inLeftGoal ? 0 : radius;
-            double minY = radius, maxY = 600 - radius;
-            if (x < minX) { x = minX; this.vx = -this.vx * 0.5; }
-            if (x > maxX) { x = maxX; this.vx = -this.vx * 0.5; }
-            if (y < minY) { y = minY; this.vy = -this.vy * 0.5; }
-            if (y > maxY) { y = maxY; this.vy = -this.vy * 0.5; }
-            if (Math.abs(this.vx) < 1.0) this.vx = 0.0; if (Math.abs(this.vy) < 1.0) this.vy = 0.0;
-            if (pendingJump && z<=0.001) { vz = 42; pendingJump = false; }
-            if (in.jump && z<=0.001) {
-                vz = 42;
-            }
-            if (boostLockActive) {
-                // Lock z/vz while boosting in air with fuel
-                // Do not update vz/z, just freeze at current values
-            } else {
-                vz -= 120.0 * dt;
-                z += vz * dt;
-                if (z < 0) { z = 0; vz = 0; }
-            }
+    // A cell's roster lists the cars visible from it, in slot order; snapshots refer to them by roster index.
+    // A new roster (and version) is built only when the names visible from the cell change, so a join or
+    // leave elsewhere in the arena costs the cell nothing.
+    private void updateRoster(InterestGrid.Cell cell) {
+        int n = world.count;
+        if (cell.rosterSlots.length < n) {
+            cell.rosterSlots = Arrays.copyOf(cell.rosterSlots, world.capacity());
+            cell.rosterNames = Arrays.copyOf(cell.rosterNames, world.capacity());
+        }
+        boolean same = cell.rosterFrame != null;
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (!cell.visible[i]) continue;
+            if (same && (k >= cell.rosterSize || !world.name[i].equals(cell.rosterNames[k]))) same = false;
+            cell.rosterSlots[k] = i;
+            k++;
+        }
+        if (same && k == cell.rosterSize) return;
+        cell.rosterSize = k;
+        cell.rosterVersion = (cell.rosterVersion + 1) & 0xFF;
+        codec.beginRoster(SnapshotCodec.FLAG_FREE_PLAY, cell.rosterVersion, k);
+        for (int j = 0; j < k; j++) {
+            String name = world.name[cell.rosterSlots[j]];
+            cell.rosterNames[j] = name;
+            codec.rosterEntry(j, SnapshotCodec.COLOR_GRAY, name);
         }
+        cell.rosterFrame = SessionSender.Frame.binary(codec.finish());
     }
 }
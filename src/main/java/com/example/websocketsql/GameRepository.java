@@ -1,13 +1,197 @@
-
 package com.example.websocketsql;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
-@Component
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Write-behind store for per-tick player positions.
+ * Tick threads call enqueuePosition(), which only copies the sample into a lock-free ring and never
+ * blocks. A single writer thread drains the ring into JDBC batch inserts every game.positions.batch-size
+ * rows or game.positions.flush-interval-ms, whichever comes first, and trims old rows to
+ * game.positions.retain-rows. When the ring is full, game.positions.when-full picks what gives:
+ * drop-oldest discards the oldest queued sample, sample thins new samples to every Nth tick once the
+ * ring is three quarters full (and drops them when it is full).
+ */
+@Component
 public class GameRepository {
-    public GameRepository() {}
-    public void savePosition(String player, long tick, double x, double y, double z, double vx, double vy, double vz) {}
-    public void enqueuePosition(String player, long tick, double x, double y, double z, double vx, double vy, double vz) {}
-    public int getQueueSize() { return 0; }
+    public enum WhenFull { DROP_OLDEST, SAMPLE }
+
+    private static final String INSERT =
+        "INSERT INTO player_positions (player, tick, x, y, z, vx, vy, vz) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    // How often the writer trims the table to the retained row count
+    private static final long RETENTION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final JdbcTemplate jdbc;
+    private final PositionRing ring;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final WhenFull whenFull;
+    private final int sampleEvery;
+    private final int highWater;
+    private final long retainRows;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private volatile boolean running = false;
+    private Thread writer;
+
+    @Autowired
+    public GameRepository(JdbcTemplate jdbc,
+                          @Value("${game.positions.capacity:65536}") int capacity,
+                          @Value("${game.positions.batch-size:500}") int batchSize,
+                          @Value("${game.positions.flush-interval-ms:100}") long flushIntervalMs,
+                          @Value("${game.positions.when-full:drop-oldest}") String whenFull,
+                          @Value("${game.positions.sample-every:4}") int sampleEvery,
+                          @Value("${game.positions.retain-rows:200000}") long retainRows) {
+        this.jdbc = jdbc;
+        this.ring = new PositionRing(capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMs));
+        this.whenFull = WhenFull.valueOf(whenFull.trim().toUpperCase().replace('-', '_'));
+        this.sampleEvery = Math.max(1, sampleEvery);
+        this.highWater = ring.capacity() / 4 * 3;
+        this.retainRows = retainRows;
+    }
+
+    // No database: samples are queued and discarded by the writer (benchmarks and offline runs)
+    public GameRepository() {
+        this(null, 65536, 500, 100, "drop-oldest", 4, 0);
+        start();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (running) return;
+        if (jdbc != null) {
+            jdbc.execute("CREATE TABLE IF NOT EXISTS player_positions ("
+                + "id BIGINT AUTO_INCREMENT PRIMARY KEY, player VARCHAR(255) NOT NULL, tick BIGINT NOT NULL, "
+                + "x DOUBLE PRECISION, y DOUBLE PRECISION, z DOUBLE PRECISION, "
+                + "vx DOUBLE PRECISION, vy DOUBLE PRECISION, vz DOUBLE PRECISION)");
+        }
+        running = true;
+        writer = new Thread(this::runWriter, "position-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Stop the writer after it has written what is still queued
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        Thread w = writer;
+        if (w == null) return;
+        LockSupport.unpark(w);
+        try {
+            w.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Synchronous single-row insert; not for the tick path
+    public void savePosition(String player, long tick, double x, double y, double z, double vx, double vy, double vz) {
+        if (jdbc == null) return;
+        jdbc.update(INSERT, player, tick, x, y, z, vx, vy, vz);
+        written.incrementAndGet();
+    }
+
+    // Called by tick threads for every player every tick; never blocks
+    public void enqueuePosition(String player, long tick, double x, double y, double z, double vx, double vy, double vz) {
+        if (whenFull == WhenFull.SAMPLE && tick % sampleEvery != 0 && ring.size() >= highWater) {
+            dropped.incrementAndGet();
+            return;
+        }
+        while (!ring.offer(player, tick, x, y, z, vx, vy, vz)) {
+            if (whenFull == WhenFull.SAMPLE) {
+                dropped.incrementAndGet();
+                return;
+            }
+            // Make room by giving up the oldest sample; the writer may have freed a slot meanwhile
+            if (ring.discardOldest()) dropped.incrementAndGet();
+        }
+    }
+
+    public int getQueueSize() { return ring.size(); }
+    public long getDropped() { return dropped.get(); }
+    public long getWritten() { return written.get(); }
+    public long getFailedBatches() { return failedBatches.get(); }
+
+    private void runWriter() {
+        PositionRing.Batch batch = new PositionRing.Batch(batchSize);
+        long lastFlush = System.nanoTime();
+        long lastRetention = lastFlush;
+        while (true) {
+            boolean stopping = !running;
+            ring.drainTo(batch);
+            long now = System.nanoTime();
+            if (batch.isFull() || (batch.size > 0 && (now - lastFlush >= flushIntervalNanos || stopping))) {
+                flush(batch);
+                lastFlush = now;
+                // Keep draining without sleeping while there is a backlog
+                continue;
+            }
+            if (stopping) break;
+            if (retainRows > 0 && jdbc != null && now - lastRetention >= RETENTION_INTERVAL_NANOS) {
+                trim();
+                lastRetention = now;
+            }
+            LockSupport.parkNanos(Math.min(flushIntervalNanos, TimeUnit.MILLISECONDS.toNanos(5)));
+        }
+    }
+
+    private void flush(PositionRing.Batch batch) {
+        int n = batch.size;
+        try {
+            if (jdbc != null) {
+                jdbc.batchUpdate(INSERT, new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setString(1, batch.player[i]);
+                        ps.setLong(2, batch.tick[i]);
+                        ps.setDouble(3, batch.x[i]);
+                        ps.setDouble(4, batch.y[i]);
+                        ps.setDouble(5, batch.z[i]);
+                        ps.setDouble(6, batch.vx[i]);
+                        ps.setDouble(7, batch.vy[i]);
+                        ps.setDouble(8, batch.vz[i]);
+                    }
+
+                    @Override
+                    public int getBatchSize() { return n; }
+                });
+                written.addAndGet(n);
+            }
+        } catch (Exception ex) {
+            // Positions are best-effort: count the lost batch and keep going
+            failedBatches.incrementAndGet();
+            dropped.addAndGet(n);
+            System.out.println("[DB] Position batch of " + n + " failed: " + ex.getMessage());
+        } finally {
+            batch.clear();
+        }
+    }
+
+    // Delete everything but the newest retainRows rows
+    private void trim() {
+        try {
+            Long maxId = jdbc.queryForObject("SELECT MAX(id) FROM player_positions", Long.class);
+            if (maxId != null && maxId > retainRows) {
+                jdbc.update("DELETE FROM player_positions WHERE id <= ?", maxId - retainRows);
+            }
+        } catch (Exception ex) {
+            System.out.println("[DB] Position retention failed: " + ex.getMessage());
+        }
+    }
 }
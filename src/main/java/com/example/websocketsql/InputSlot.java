@@ -0,0 +1,66 @@
+package com.example.websocketsql;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Reusable holder for one player's latest input.
+ * Each session decodes into its own slot, and Match / GameLoop keep one published slot per player
+ * that the tick reads without locking. Writers are serialized; readers retry if they overlap a write.
+ */
+final class InputSlot {
+    int seq;
+    double throttle, steer;
+    boolean jump, boost, brake;
+
+    // Even = stable, odd = write in progress
+    private volatile int version;
+    // A jump press since the tick last looked; survives later publishes without jump
+    private volatile boolean jumpLatched;
+
+    void clear() {
+        seq = 0;
+        throttle = 0; steer = 0;
+        jump = false; boost = false; brake = false;
+    }
+
+    // Publish another slot's values to tick readers
+    synchronized void publish(InputSlot from) {
+        version++;
+        VarHandle.storeStoreFence();
+        seq = from.seq;
+        throttle = from.throttle; steer = from.steer;
+        jump = from.jump; boost = from.boost; brake = from.brake;
+        version++;
+    }
+
+    void latchJump() {
+        jumpLatched = true;
+    }
+
+    // Whether a press is latched, without taking it
+    boolean hasJump() {
+        return jumpLatched;
+    }
+
+    // True once per latched press; called by the tick
+    boolean takeJump() {
+        if (!jumpLatched) return false;
+        jumpLatched = false;
+        return true;
+    }
+
+    // Consistent copy of the last published input into a thread-local scratch slot
+    void readInto(InputSlot to) {
+        while (true) {
+            int v = version;
+            if ((v & 1) == 0) {
+                to.seq = seq;
+                to.throttle = throttle; to.steer = steer;
+                to.jump = jump; to.boost = boost; to.brake = brake;
+                VarHandle.loadLoadFence();
+                if (version == v) return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
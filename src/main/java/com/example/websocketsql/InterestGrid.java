@@ -0,0 +1,116 @@
+package com.example.websocketsql;
+
+import java.util.Arrays;
+
+/**
+ * Area of interest for the free-play broadcast.
+ * The arena is split into square cells and every client is assigned the cell its car is in. A client receives
+ * the ball and the cars within the radius of its cell, so clients in the same cell share one encoded state
+ * (one JSON frame, one binary codec) and the encoding work grows with occupied cells, not with clients.
+ * Both edges are sticky: a client only changes cell once its car is `hysteresis` past the cell border, and a
+ * car that is visible stays visible until it is `hysteresis` beyond the radius.
+ * Only used by the free-play tick thread.
+ */
+final class InterestGrid {
+    static final int PROTO_TEXT = 1, PROTO_BINARY = 2;
+
+    final double cellSize, radius, hysteresis;
+    final int cols, rows;
+    final Cell[] cells;
+
+    // radius <= 0 turns filtering off: a single cell that sees everything
+    InterestGrid(double cellSize, double radius, double hysteresis) {
+        boolean enabled = radius > 0 && cellSize > 0;
+        this.hysteresis = enabled ? Math.max(0, hysteresis) : 0;
+        // A client's own car is at most `hysteresis` outside its cell, so it must always be in range
+        this.radius = enabled ? Math.max(radius, this.hysteresis) : Double.POSITIVE_INFINITY;
+        this.cellSize = enabled ? cellSize : Math.max(PhysicsWorld.WIDTH, PhysicsWorld.HEIGHT);
+        this.cols = (int) Math.ceil(PhysicsWorld.WIDTH / this.cellSize);
+        this.rows = (int) Math.ceil(PhysicsWorld.HEIGHT / this.cellSize);
+        this.cells = new Cell[cols * rows];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                cells[r * cols + c] = new Cell(r * cols + c, c * this.cellSize, r * this.cellSize,
+                    (c + 1) * this.cellSize, (r + 1) * this.cellSize);
+            }
+        }
+    }
+
+    // Cell for a car at (x, y) whose client was last in cell `current` (-1 = none yet)
+    int cellFor(int current, double x, double y) {
+        if (current >= 0 && current < cells.length) {
+            Cell c = cells[current];
+            if (x >= c.minX - hysteresis && x < c.maxX + hysteresis && y >= c.minY - hysteresis && y < c.maxY + hysteresis) {
+                return current;
+            }
+        }
+        int col = (int) (x / cellSize), row = (int) (y / cellSize);
+        col = col < 0 ? 0 : Math.min(col, cols - 1);
+        row = row < 0 ? 0 : Math.min(row, rows - 1);
+        return row * cols + col;
+    }
+
+    // Start of a broadcast: no cell has clients yet
+    void beginTick() {
+        for (Cell c : cells) {
+            c.protocols = 0;
+            c.text = null;
+        }
+    }
+
+    // Keep per-slot visibility aligned with PhysicsWorld.removeCar(): `moved` took over `slot`
+    void carRemoved(int slot, int moved) {
+        for (Cell c : cells) {
+            if (slot >= c.visible.length) continue;
+            c.visible[slot] = moved >= 0 && moved < c.visible.length && c.visible[moved];
+            if (moved >= 0 && moved < c.visible.length) c.visible[moved] = false;
+        }
+    }
+
+    int occupiedCells() {
+        int n = 0;
+        for (Cell c : cells) {
+            if (c.protocols != 0) n++;
+        }
+        return n;
+    }
+
+    static final class Cell {
+        final int index;
+        final double minX, minY, maxX, maxY;
+        // Visible cars by slot, carried over between ticks for the hysteresis
+        boolean[] visible = new boolean[0];
+        // Snapshot history of what this cell's binary clients were sent
+        final SnapshotCodec codec = new SnapshotCodec();
+        // This tick: encodings needed by the clients in the cell (PROTO_* bits) and the shared JSON frame
+        int protocols;
+        SessionSender.Frame text;
+        // Binary roster: the cars visible from this cell, roster index k is car slot rosterSlots[k]
+        int[] rosterSlots = new int[0];
+        String[] rosterNames = new String[0];
+        int rosterSize;
+        int rosterVersion;
+        SessionSender.Frame rosterFrame;
+
+        Cell(int index, double minX, double minY, double maxX, double maxY) {
+            this.index = index;
+            this.minX = minX; this.minY = minY;
+            this.maxX = maxX; this.maxY = maxY;
+        }
+
+        void updateVisibility(PhysicsWorld world, double radius, double hysteresis) {
+            int n = world.count;
+            if (visible.length < world.capacity()) visible = Arrays.copyOf(visible, world.capacity());
+            double enter = radius * radius, stay = (radius + hysteresis) * (radius + hysteresis);
+            for (int i = 0; i < n; i++) {
+                if (!world.active[i]) { visible[i] = false; continue; }
+                double x = world.x[i], y = world.y[i];
+                // Distance from the car to the nearest point of the cell
+                double dx = Math.max(0, Math.max(minX - x, x - maxX));
+                double dy = Math.max(0, Math.max(minY - y, y - maxY));
+                double d2 = dx * dx + dy * dy;
+                visible[i] = d2 <= (visible[i] ? stay : enter);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.websocketsql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size log-linear histogram of durations in nanoseconds.
+ * Every power of two is split into 8 sub-buckets (about 12.5% resolution) from 1 µs up to ~68 s.
+ * Recording is a couple of atomic increments with no allocation, so it is safe to call from tick
+ * threads; reads are approximate while writers are active, which is fine for monitoring.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Values below 2^MIN_EXP ns (~1 µs) share bucket 0
+    private static final int MIN_EXP = 10;
+    private static final int MAX_EXP = 36;
+    private static final int BUCKETS = (MAX_EXP - MIN_EXP + 1) * SUB_COUNT + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucketOf(nanos));
+        total.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+        if (nanos > maxNanos.get()) maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    long count() { return total.get(); }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        total.set(0);
+        sumNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    // Add another histogram's samples to this one
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        total.addAndGet(other.total.get());
+        sumNanos.addAndGet(other.sumNanos.get());
+        maxNanos.accumulateAndGet(other.maxNanos.get(), Math::max);
+    }
+
+    // Upper bound (ns) of the bucket holding the given quantile
+    long percentile(double q) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(q * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), maxNanos.get());
+        }
+        return maxNanos.get();
+    }
+
+    // Summary in microseconds, as shown on /admin/stats
+    Map<String, Object> summary() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long n = total.get();
+        m.put("count", n);
+        m.put("meanUs", n == 0 ? 0.0 : micros(sumNanos.get() / n));
+        m.put("p50Us", micros(percentile(0.50)));
+        m.put("p99Us", micros(percentile(0.99)));
+        m.put("p999Us", micros(percentile(0.999)));
+        m.put("maxUs", micros(maxNanos.get()));
+        return m;
+    }
+
+    private static double micros(long nanos) {
+        return Math.round(nanos / 100.0) / 10.0;
+    }
+
+    private static int bucketOf(long nanos) {
+        int exp = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exp < MIN_EXP) return 0;
+        if (exp > MAX_EXP) return BUCKETS - 1;
+        int sub = (int) (nanos >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return 1 + (exp - MIN_EXP) * SUB_COUNT + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket == 0) return (1L << MIN_EXP) - 1;
+        int exp = MIN_EXP + (bucket - 1) / SUB_COUNT;
+        int sub = (bucket - 1) % SUB_COUNT;
+        return (1L << exp) + ((long) (sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+}
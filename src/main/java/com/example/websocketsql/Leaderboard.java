@@ -0,0 +1,138 @@
+package com.example.websocketsql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Elo ratings and win/loss records of every player who finished a match, ranked in memory.
+ * The result writer updates it; HTTP threads read it. Reads take the shared lock and never touch the database.
+ */
+final class Leaderboard {
+    static final double INITIAL_RATING = 1200;
+    static final double K = 32;
+
+    static final class Standing {
+        final String name;
+        double rating = INITIAL_RATING;
+        int wins, losses, draws;
+
+        Standing(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Map<String, Standing> standings = new HashMap<>();
+    private final RankedSkipList ranking = new RankedSkipList();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Scores one result (winner null = draw) and returns the new ratings {a, b}
+    double[] apply(String a, String b, String winner) {
+        lock.writeLock().lock();
+        try {
+            Standing sa = standing(a), sb = standing(b);
+            double expectedA = 1 / (1 + Math.pow(10, (sb.rating - sa.rating) / 400));
+            double actualA = winner == null ? 0.5 : winner.equals(a) ? 1 : 0;
+            double delta = K * (actualA - expectedA);
+            if (winner == null) { sa.draws++; sb.draws++; }
+            else if (winner.equals(a)) { sa.wins++; sb.losses++; }
+            else { sb.wins++; sa.losses++; }
+            rerate(sa, sa.rating + delta);
+            rerate(sb, sb.rating - delta);
+            return new double[] { sa.rating, sb.rating };
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Loads a stored result as is: ratings are the ones recorded after that match
+    void restore(String a, String b, String winner, double ratingA, double ratingB) {
+        lock.writeLock().lock();
+        try {
+            Standing sa = standing(a), sb = standing(b);
+            if (winner == null) { sa.draws++; sb.draws++; }
+            else if (winner.equals(a)) { sa.wins++; sb.losses++; }
+            else { sb.wins++; sa.losses++; }
+            rerate(sa, ratingA);
+            rerate(sb, ratingB);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Current rating; players without a finished match start at INITIAL_RATING
+    double rating(String name) {
+        lock.readLock().lock();
+        try {
+            Standing s = standings.get(name);
+            return s != null ? s.rating : INITIAL_RATING;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return ranking.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Entries ranked from..from+limit-1 (1-based)
+    List<Map<String, Object>> top(int from, int limit) {
+        List<Map<String, Object>> out = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            ranking.range(from, limit, (name, rating, rank) -> out.add(entry(standings.get(name), rank)));
+        } finally {
+            lock.readLock().unlock();
+        }
+        return out;
+    }
+
+    // The player's entry with its rank, or null if the player has no finished match
+    Map<String, Object> find(String name) {
+        lock.readLock().lock();
+        try {
+            Standing s = standings.get(name);
+            if (s == null) return null;
+            Map<String, Object> m = entry(s, ranking.rank(name, s.rating));
+            m.put("players", ranking.size());
+            return m;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Standing standing(String name) {
+        Standing s = standings.get(name);
+        if (s == null) {
+            s = new Standing(name);
+            standings.put(name, s);
+            ranking.insert(name, s.rating);
+        }
+        return s;
+    }
+
+    private void rerate(Standing s, double rating) {
+        ranking.remove(s.name, s.rating);
+        s.rating = rating;
+        ranking.insert(s.name, rating);
+    }
+
+    private static Map<String, Object> entry(Standing s, int rank) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("rank", rank);
+        m.put("name", s.name);
+        m.put("rating", Math.round(s.rating * 10) / 10.0);
+        m.put("wins", s.wins);
+        m.put("losses", s.losses);
+        m.put("draws", s.draws);
+        return m;
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.websocketsql;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+// Served from the in-memory ranking; never queries the database
+@RestController
+@RequestMapping("/api/leaderboard")
+public class LeaderboardController {
+    private static final int MAX_LIMIT = 100;
+    private final MatchResults results;
+
+    public LeaderboardController(MatchResults results) {
+        this.results = results;
+    }
+
+    // Top players, or a page further down with offset (0 = first place)
+    @GetMapping
+    public List<Map<String, Object>> top(@RequestParam(defaultValue = "10") int limit,
+                                         @RequestParam(defaultValue = "0") int offset) {
+        return results.top(Math.max(0, offset) + 1, Math.max(0, Math.min(MAX_LIMIT, limit)));
+    }
+
+    // A player's rank, rating and record
+    @GetMapping("/{name}")
+    public ResponseEntity<?> player(@PathVariable String name) {
+        Map<String, Object> entry = results.find(name);
+        return entry != null ? ResponseEntity.ok(entry) : ResponseEntity.notFound().build();
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.websocketsql;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes every open game connection with a WebSocket ping every game.outbox.ping-interval-ms.
+ * Clients answer pings by themselves (browsers and other RFC 6455 clients do), GameHandler feeds the pongs
+ * to the connection's LinkStats, and SessionSender adapts the connection's snapshot rate from what they show.
+ */
+@Component
+public class LinkMonitor {
+    private final SessionRegistry sessions;
+    private final SessionSender sender;
+    private final long intervalMs;
+    private final ScheduledExecutorService pinger = Executors.newSingleThreadScheduledExecutor(
+        r -> { Thread t = new Thread(r, "link-ping"); t.setDaemon(true); return t; });
+
+    public LinkMonitor(SessionRegistry sessions, SessionSender sender,
+                       @Value("${game.outbox.ping-interval-ms:1000}") long intervalMs) {
+        this.sessions = sessions;
+        this.sender = sender;
+        this.intervalMs = intervalMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (intervalMs > 0) pinger.scheduleAtFixedRate(this::pingAll, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pinger.shutdownNow();
+    }
+
+    private void pingAll() {
+        try {
+            for (ClientSession cs : sessions.connections()) {
+                if (cs.session.isOpen()) sender.ping(cs);
+            }
+        } catch (RuntimeException ex) {
+            // Keep the schedule alive
+            ex.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.websocketsql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * How well one connection keeps up, and how often it is sent state because of it.
+ * RTT comes from WebSocket ping frames stamped with System.nanoTime() as they are written (the client echoes the
+ * payload in its pong) and is smoothed as in TCP (RFC 6298): srtt follows samples by 1/8, jitter (rttvar) follows
+ * |srtt - sample| by 1/4. The send divisor is how many of the match's snapshots make one for this connection;
+ * the thread ticking the connection's match moves it (admit()), everything else only reads it.
+ */
+final class LinkStats {
+    // Written by the sender thread draining the connection (pings) and its IO thread (pongs)
+    private volatile long srttNanos = -1;
+    private volatile long rttVarNanos;
+    private volatile long lastRttNanos = -1;
+    private volatile long pings, pongs;
+
+    // --- SEND RATE (tick thread) ---
+    private volatile int divisor = 1;
+    private int opportunity;
+    private int healthy;
+    private volatile long sent, skipped;
+    private long lastKeyframeNanos;
+
+    void pingSent() { pings++; }
+
+    void onPong(long rttNanos) {
+        // A stale or foreign payload
+        if (rttNanos < 0 || rttNanos > 60_000_000_000L) return;
+        pongs++;
+        lastRttNanos = rttNanos;
+        long srtt = srttNanos;
+        if (srtt < 0) {
+            srttNanos = rttNanos;
+            rttVarNanos = rttNanos / 2;
+        } else {
+            rttVarNanos += (Math.abs(srtt - rttNanos) - rttVarNanos) / 4;
+            srttNanos = srtt + (rttNanos - srtt) / 8;
+        }
+    }
+
+    // Smoothed RTT, or -1 before the first pong
+    long srttNanos() { return srttNanos; }
+
+    long rttVarNanos() { return rttVarNanos; }
+
+    int divisor() { return divisor; }
+
+    // Whether this snapshot goes to the connection. behind: the connection showed backlog or slowness since the
+    // last snapshot. Each snapshot it is behind halves the rate again (down to 1 in maxDivisor, at most one step
+    // per interval already in force); recoverAfter snapshots in a row without trouble win one step back.
+    boolean admit(boolean behind, int maxDivisor, int recoverAfter) {
+        int d = divisor;
+        if (behind) {
+            healthy = 0;
+            if (d < maxDivisor && opportunity % d == 0) divisor = d = Math.min(maxDivisor, d * 2);
+        } else if (d > 1 && ++healthy >= recoverAfter) {
+            healthy = 0;
+            divisor = d = d / 2;
+        }
+        boolean send = opportunity++ % d == 0;
+        if (send) sent++; else skipped++;
+        return send;
+    }
+
+    // While degraded, a keyframe is not repeated until the last one had time to be acknowledged (srtt + 4 rttvar),
+    // after which the connection is back on deltas; otherwise lagging acks would earn it a keyframe every snapshot
+    boolean admitKeyframe(long now) {
+        if (divisor > 1 && srttNanos > 0 && now - lastKeyframeNanos < srttNanos + 4 * rttVarNanos) {
+            sent--;
+            skipped++;
+            return false;
+        }
+        lastKeyframeNanos = now;
+        return true;
+    }
+
+    Map<String, Object> summary(double snapshotHz) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long srtt = srttNanos;
+        m.put("rttMs", srtt < 0 ? null : srtt / 1_000_000.0);
+        m.put("jitterMs", srtt < 0 ? null : rttVarNanos / 1_000_000.0);
+        m.put("lastRttMs", lastRttNanos < 0 ? null : lastRttNanos / 1_000_000.0);
+        m.put("pings", pings);
+        m.put("pongs", pongs);
+        m.put("sendDivisor", divisor);
+        m.put("sendHz", snapshotHz / divisor);
+        m.put("statesSent", sent);
+        m.put("statesSkipped", skipped);
+        return m;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.websocketsql;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells every joined player how many players are online ({"type":"activePlayerCount"}).
+ * Joins and leaves only mark the count changed; one broadcast goes out per game.lobby.presence-interval-ms at
+ * most, with the count at the time it is sent, so a burst of joins or leaves costs one message per player
+ * instead of one per player per change. Each broadcast is encoded once and the same frame goes to everyone.
+ */
+@Component
+public class LobbyPresence {
+    private final SessionRegistry sessions;
+    private final SessionSender sender;
+    private final long intervalNanos;
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+        r -> { Thread t = new Thread(r, "lobby-presence"); t.setDaemon(true); return t; });
+    // A broadcast is scheduled and has not read the count yet
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private volatile long lastFlushNanos = System.nanoTime() - (1L << 40);
+    // Count last broadcast, and the newest encoded frame (for direct sends too)
+    private volatile int sentCount = -1;
+    private volatile Encoded latest = new Encoded(-1, null);
+
+    // --- METRICS ---
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong broadcasts = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+
+    private static final class Encoded {
+        final int count;
+        final SessionSender.Frame frame;
+
+        Encoded(int count, SessionSender.Frame frame) {
+            this.count = count;
+            this.frame = frame;
+        }
+    }
+
+    public LobbyPresence(SessionRegistry sessions, SessionSender sender,
+                         @Value("${game.lobby.presence-interval-ms:500}") long intervalMs) {
+        this.sessions = sessions;
+        this.sender = sender;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, intervalMs));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdownNow();
+    }
+
+    // A player joined: it gets the current count right away, everyone else with the next broadcast
+    void joined(ClientSession cs) {
+        sender.sendReliable(cs, frame(sessions.getPlayerCount()));
+        messages.incrementAndGet();
+        changed();
+    }
+
+    // The player count may have changed; any thread
+    void changed() {
+        changes.incrementAndGet();
+        if (!pending.compareAndSet(false, true)) return;
+        long wait = Math.max(0, lastFlushNanos + intervalNanos - System.nanoTime());
+        flusher.schedule(this::flush, wait, TimeUnit.NANOSECONDS);
+    }
+
+    private void flush() {
+        try {
+            lastFlushNanos = System.nanoTime();
+            // Changes from here on schedule the next broadcast
+            pending.set(false);
+            int count = sessions.getPlayerCount();
+            if (count == sentCount) return;
+            sentCount = count;
+            SessionSender.Frame frame = frame(count);
+            broadcasts.incrementAndGet();
+            for (ClientSession cs : sessions.players()) {
+                sender.sendReliable(cs, frame);
+                messages.incrementAndGet();
+            }
+        } catch (RuntimeException ex) {
+            // Keep the scheduler alive
+            ex.printStackTrace();
+        }
+    }
+
+    private SessionSender.Frame frame(int count) {
+        Encoded e = latest;
+        if (e.count != count) {
+            e = new Encoded(count, SessionSender.Frame.text("{\"type\":\"activePlayerCount\",\"count\":" + count + "}"));
+            latest = e;
+        }
+        return e.frame;
+    }
+
+    Map<String, Object> summary() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("players", sessions.getPlayerCount());
+        m.put("changes", changes.get());
+        m.put("broadcasts", broadcasts.get());
+        m.put("messages", messages.get());
+        return m;
+    }
+}
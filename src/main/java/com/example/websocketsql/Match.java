@@ -1,123 +1,355 @@
 
 package com.example.websocketsql;
 
-import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
-import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 
+/**
+ * One 1v1 game. Game state (world, slots, scores, round timer, recorder) belongs to the thread ticking the match:
+ * joins, leaves and other mutations from IO, matchmaker and cleanup threads are queued as MatchCommands and
+ * applied at the start of the next tick. Inputs are the exception; they are published to the player's
+ * InputSlot, which the tick reads without locking.
+ */
 public class Match {
     public final String id = UUID.randomUUID().toString();
-    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
-    private final Map<String, PlayerState> players = new ConcurrentHashMap<>();
-    private final Map<String, PlayerInput> inputs = new ConcurrentHashMap<>();
-    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-    @SuppressWarnings("unused")
-    private final java.util.concurrent.ExecutorService sendExecutor = Executors.newSingleThreadExecutor(r -> { Thread t = new Thread(r, "match-sender-"+id); t.setDaemon(true); return t; });
-    private GameRepository repo = new GameRepository();
+    // Who is in this match, for the callers' own bookkeeping (emptiness, boost refills, admin views).
+    // Updated at once by the calling thread; the tick works from clients[] instead.
+    private final Map<String, ClientSession> members = new ConcurrentHashMap<>();
+    private final MatchCommands commands = new MatchCommands();
+    // Cars live in dense slots of the world; clients[i] is the connection of the car in slot i
+    private final PhysicsWorld world = new PhysicsWorld();
+    private ClientSession[] clients = new ClientSession[world.capacity()];
+    private int clientCount = 0;
+    private boolean closed = false;
+    private final PhysicsWorld.Ball ball = world.ball;
+    private final PhysicsWorld.GoalListener goalListener = this::onGoal;
+    // Round timer as seen by the tick in progress (read by onGoal)
+    private long tickTimerMs;
+    // One published input slot per car, written by the session's IO thread (through ClientSession.input) and
+    // read by the tick
+    private InputSlot[] published = new InputSlot[world.capacity()];
+    private final InputSlot scratch = new InputSlot();
+    private int slotA = -1, slotB = -1;
+    private final MatchTickEngine engine;
+    private final SessionSender sender;
+    // Scheduling slot in the shared tick engine; null once the match has been released
+    volatile MatchTickEngine.Shard shard;
+    volatile long lastTickNanos = 0;
+    // How late the last tick started against the engine's schedule
+    volatile long tickLagNanos = 0;
+    // Bytes handed to session outboxes by the last snapshot broadcast
+    volatile long lastBroadcastBytes = 0;
+    // Profile of the shard running the current tick (taken at the start of each tick, since matches move between
+    // shards), and this match's own per-phase totals
+    private TickProfile profile = DETACHED_PROFILE;
+    final TickProfile.Totals phases = new TickProfile.Totals();
+    // Where a match ticked outside the engine (benchmarks, tools) records its phases
+    private static final TickProfile DETACHED_PROFILE = new TickProfile();
+    private GameRepository repo;
+    // Input log of this match when replays are enabled (null otherwise); only written by the tick
+    private final ReplayService replays;
+    private MatchRecorder recorder;
+    // The recorder opened for this match on the replay I/O thread, until the tick takes it; RECORDING_CLOSED once
+    // the match has finished, so a recorder that arrives later is dropped instead of left open
+    private final AtomicReference<Object> recorderHandoff = new AtomicReference<>();
+    private static final Object RECORDING_CLOSED = new Object();
+    // Where the result goes at gameover (null in benchmarks)
+    private final MatchResults results;
+    // --- BINARY SNAPSHOTS ---
+    private final SnapshotCodec codec = new SnapshotCodec();
+    private volatile int rosterVersion = 0; // bumped whenever the set of players changes
+    private int builtRosterVersion = -1; // roster entry i is car slot i
+    private SessionSender.Frame rosterFrame;
     private int tickCounter = 0;
-    private static final int BROADCAST_SKIP = 1; // send state every N ticks
-    private Ball ball;
+    // Step length and which steps send a snapshot (game.sim.hz / game.snapshot.hz)
+    private final TickRates rates;
     private int scoreA = 0, scoreB = 0;
     private String playerA = null, playerB = null;
     // --- ROUND TIMER ---
+    // Game time: advances one physics step per tick, so a stalled or skipped tick does not eat into the round
+    private long clockNanos = 0;
     private static final int ROUND_DURATION_MS = 180000; // 3 minutes
-    private long roundEndTime = System.currentTimeMillis() + 180000 + 5000; // 5s countdown, then 3 min round
+    private long roundEndTime = 180000 + 5000; // 5s countdown, then 3 min round
     private boolean roundOver = false;
 
     // --- ROUND START COUNTDOWN ---
     private boolean roundFrozen = true;
-    private long roundCountdownEndTime = System.currentTimeMillis() + 5000; // 5 seconds from match creation
+    private long roundCountdownEndTime = 5000; // 5 seconds from match creation
 
-    public Match(GameRepository repo) {
+    // --- QUIESCENCE ---
+    // While nothing can change on its own (countdown, or every car and the ball at rest with neutral input) the match
+    // sleeps: the engine only advances its clock (doze) until a game-time deadline or until another thread wakes it
+    // with a command or, at rest, a moving input. Each wake-up sends a snapshot, so clocks still update at low cadence.
+    private static final long COUNTDOWN_UPDATE_MS = 250;
+    private static final long REST_UPDATE_MS = 1000;
+    // Ticks in a row at rest before sleeping
+    private static final int REST_TICKS = 3;
+    private volatile boolean asleep;
+    private volatile boolean wakeOnInput;
+    private volatile boolean wakeRequested;
+    private long wakeAtMs;
+    private int restTicks;
+    private boolean forceSnapshot;
+
+    public Match(GameRepository repo, MatchTickEngine engine, SessionSender sender) {
+        this(repo, engine, sender, null, null);
+    }
+
+    public Match(GameRepository repo, MatchTickEngine engine, SessionSender sender, ReplayService replays, MatchResults results) {
         this.repo = repo;
+        this.engine = engine;
+        this.sender = sender;
+        this.rates = engine.rates;
+        this.replays = replays;
+        this.results = results;
         System.out.println("[DEBUG] Match created with id: " + id);
-        this.ball = new Ball();
-        // Ensure ball starts in the center
-        this.ball.x = 520;
-        this.ball.y = 300;
-        executor.scheduleAtFixedRate(this::tick, 0, 33, TimeUnit.MILLISECONDS);
+        engine.register(this);
+        if (replays != null) replays.open(id, rates.dt, this::recorderOpened);
+    }
+
+    // Replay I/O thread: the recording is ready; the tick starts writing it
+    private void recorderOpened(MatchRecorder r) {
+        if (recorderHandoff.compareAndSet(null, r)) enqueue(MatchCommands.START_RECORDING, null, null);
+        else replays.discard(r);
+    }
+
+    // Tick thread: starts the log from the cars already here. A log must start before the first goal so the
+    // replay keeps score; if the round is already under way it starts from a keyframe, otherwise the keyframe
+    // at the end of the countdown follows.
+    private void startRecording() {
+        Object o = recorderHandoff.get();
+        if (recorder != null || !(o instanceof MatchRecorder)) return;
+        MatchRecorder r = (MatchRecorder) o;
+        if (scoreA != 0 || scoreB != 0) {
+            recorderHandoff.set(RECORDING_CLOSED);
+            replays.discard(r);
+            System.out.println("[REPLAY] Recording of match " + id + " was ready after the first goal; not recorded");
+            return;
+        }
+        recorder = r;
+        for (int i = 0, n = world.count; i < n; i++) {
+            int side = i == slotA ? MatchRecorder.SIDE_A : i == slotB ? MatchRecorder.SIDE_B : MatchRecorder.SIDE_NONE;
+            r.spawn(i, side, world.name[i], world.x[i], world.y[i], world.angle[i]);
+        }
+        if (!roundFrozen) r.keyframe(world);
     }
 
+    // Queues a command for the next tick and wakes the match for it
+    private void enqueue(int op, String name, WebSocketSession session) {
+        commands.offer(op, name, session);
+        wake();
+    }
+
+    // Makes a sleeping match tick on the engine's next step; any thread
+    void wake() {
+        if (asleep) wakeRequested = true;
+    }
+
+    boolean isAsleep() { return asleep; }
+
+    // Takes the player in; the car spawns on the next tick. A new session of a player already here replaces the old one.
     public void addPlayer(String name, WebSocketSession session) {
-        sessions.put(name, session);
+        ClientSession cs = ClientSession.of(session);
+        ClientSession prev = members.put(name, cs);
+        if (prev != null && prev != cs) prev.leaveMatch(this);
+        cs.enterMatch(this);
+        enqueue(MatchCommands.ADD_PLAYER, name, session);
+    }
+
+    // Applies what other threads queued since the last tick. Only the thread ticking the match calls this; offline
+    // runs and benchmarks that drive a match by hand call it directly.
+    void applyCommands() {
+        MatchCommands.Command c;
+        while ((c = commands.poll()) != null) {
+            switch (c.op) {
+                case MatchCommands.ADD_PLAYER: spawn(c.name, c.client); break;
+                case MatchCommands.REMOVE_PLAYER: despawn(c.name); break;
+                case MatchCommands.REFILL_BOOST: {
+                    int slot = world.indexOf(c.name);
+                    if (slot >= 0) {
+                        world.boostFuel[slot] = 100.0;
+                        if (recorder != null) recorder.boostRefill(slot);
+                    }
+                    break;
+                }
+                case MatchCommands.BALL_JUMP:
+                    ball.jump();
+                    if (recorder != null) recorder.ballJump();
+                    break;
+                case MatchCommands.REMOVE_ALL: clear(); break;
+                case MatchCommands.CLOSE: finish(); break;
+                case MatchCommands.START_RECORDING: startRecording(); break;
+                default: break;
+            }
+        }
+    }
+
+    private void spawn(String name, ClientSession cs) {
+        if (closed) return;
+        boolean known = world.indexOf(name) >= 0;
         // Assign spawn positions: playerA (left), playerB (right)
-        if (playerA == null) {
+        int slot;
+        if (known) {
+            slot = world.indexOf(name);
+        } else if (playerA == null) {
             playerA = name;
             // Spawn playerA in front of left goal, higher up (y=200)
-            players.putIfAbsent(name, PlayerState.spawn(name, 180, 200, 0));
-            // In single player mode, spawn a practice ball
-            if (sessions.size() == 1) {
-                this.ball = new Ball();
-                this.ball.x = 520;
-                this.ball.y = 300;
-            }
+            slot = slotA = addCar(name, 180, 200, 0, MatchRecorder.SIDE_A);
         } else if (playerB == null) {
             playerB = name;
             // Spawn playerB in front of right goal, lower down (y=400), facing away from ball (angle=0)
-            players.putIfAbsent(name, PlayerState.spawn(name, 860, 400, 0));
+            slot = slotB = addCar(name, 860, 400, 0, MatchRecorder.SIDE_B);
         } else {
-            players.putIfAbsent(name, PlayerState.spawn(name)); // fallback random
+            slot = addCar(name, Math.random() * 400 + 100, Math.random() * 200 + 100, 0, MatchRecorder.SIDE_NONE); // fallback random
         }
-        // notify this session that it has been matched
-        try {
-            String json = "{\"type\":\"matched\",\"match\":\"" + id + "\",\"playerA\":\"" + playerA + "\",\"playerB\":\"" + playerB + "\"}";
-            if (session != null && session.isOpen()) session.sendMessage(new TextMessage(json));
-        } catch (Exception ex) {
-            ex.printStackTrace();
+        if (clients[slot] == null) clientCount++;
+        clients[slot] = cs;
+        cs.input = published[slot];
+        // In single player mode, start from a fresh practice ball
+        if (!known && clientCount == 1 && slot == slotA) {
+            ball.reset();
         }
+        // notify this session that it has been matched
+        String json = "{\"type\":\"matched\",\"match\":\"" + id + "\",\"playerA\":\"" + playerA + "\",\"playerB\":\"" + playerB + "\"}";
+        sender.sendReliable(cs, json);
 
-        if (sessions.size() == 2 && playerA != null && playerB != null) {
-            WebSocketSession sa = sessions.get(playerA);
-            WebSocketSession sb = sessions.get(playerB);
+        if (clientCount == 2 && playerA != null && playerB != null) {
+            ClientSession sa = slotA >= 0 ? clients[slotA] : null;
+            ClientSession sb = slotB >= 0 ? clients[slotB] : null;
             String matchInfo = String.format(
                 "{\"type\":\"matched\",\"match\":\"%s\",\"playerA\":\"%s\",\"playerB\":\"%s\"}",
                 id, playerA, playerB
             );
-            try {
-                if (sa != null && sa.isOpen()) sa.sendMessage(new TextMessage(matchInfo));
-                if (sb != null && sb.isOpen()) sb.sendMessage(new TextMessage(matchInfo));
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
+            SessionSender.Frame matched = SessionSender.Frame.text(matchInfo);
+            if (sa != null) sender.sendReliable(sa, matched);
+            if (sb != null) sender.sendReliable(sb, matched);
             // Always start/restart countdown when both players are present
             System.out.println("[DEBUG] Starting/restarting pregame countdown for match " + id);
-            roundCountdownEndTime = System.currentTimeMillis() + 5000;
+            roundCountdownEndTime = clockMs() + 5000;
             roundEndTime = roundCountdownEndTime + ROUND_DURATION_MS;
             roundFrozen = true;
             roundOver = false;
         } else {
-            System.out.println("[DEBUG] Not starting countdown: sessions.size()=" + sessions.size() + ", playerA=" + playerA + ", playerB=" + playerB + ", roundFrozen=" + roundFrozen);
+            System.out.println("[DEBUG] Not starting countdown: sessions=" + clientCount + ", playerA=" + playerA + ", playerB=" + playerB + ", roundFrozen=" + roundFrozen);
+        }
+    }
+
+    // Slot of the player's car, adding the car if the player has none yet
+    private int addCar(String name, double x, double y, double angle, int side) {
+        int slot = world.indexOf(name);
+        if (slot >= 0) return slot;
+        slot = world.addCar(name, x, y, angle);
+        if (recorder != null) recorder.spawn(slot, side, name, x, y, angle);
+        if (published.length < world.capacity()) {
+            published = Arrays.copyOf(published, world.capacity());
+            clients = Arrays.copyOf(clients, world.capacity());
         }
+        published[slot] = new InputSlot();
+        rosterVersion++;
+        return slot;
     }
 
-        // Returns true if no players remain in the match
+    private void removeCar(int slot) {
+        if (recorder != null) recorder.remove(slot);
+        if (slot == slotA) slotA = -1;
+        if (slot == slotB) slotB = -1;
+        if (clients[slot] != null) clientCount--;
+        int moved = world.removeCar(slot);
+        if (moved >= 0) {
+            published[slot] = published[moved];
+            clients[slot] = clients[moved];
+            if (slotA == moved) slotA = slot;
+            if (slotB == moved) slotB = slot;
+        }
+        published[world.count] = null;
+        clients[world.count] = null;
+        rosterVersion++;
+    }
+
+    // Returns true if no players remain in the match
     public boolean isEmpty() {
-        return sessions.isEmpty() && players.isEmpty();
+        return members.isEmpty();
     }
 
-    // Remove all players from the match (for cleanup)
+    // Remove all players from the match (for cleanup); the match closes on its next tick
     public void removeAllPlayers() {
-        sessions.clear();
-        players.clear();
-        inputs.clear();
+        for (ClientSession cs : members.values()) cs.leaveMatch(this);
+        members.clear();
+        enqueue(MatchCommands.REMOVE_ALL, null, null);
+    }
+
+    private void clear() {
+        world.clear();
+        Arrays.fill(published, null);
+        Arrays.fill(clients, null);
+        clientCount = 0;
+        slotA = -1;
+        slotB = -1;
+        rosterVersion++;
+        finish();
+    }
+
+    // End the pre-round countdown immediately (offline runs and benchmarks)
+    void skipCountdown() {
+        roundCountdownEndTime = clockMs();
+        roundFrozen = false;
+        roundEndTime = clockMs() + ROUND_DURATION_MS;
+    }
+
+    public int getPlayerCount() { return world.count; }
+    public int getSessionCount() { return members.size(); }
+
+    // Frames waiting in this match's session outboxes: {total, deepest single session}
+    public int[] getOutboxDepth() {
+        int total = 0, max = 0;
+        for (ClientSession cs : members.values()) {
+            int d = cs.outboxDepth();
+            total += d;
+            max = Math.max(max, d);
+        }
+        return new int[] { total, max };
+    }
+
+    // Stop ticking this match once the commands queued before this are applied
+    public void close() {
+        enqueue(MatchCommands.CLOSE, null, null);
+    }
+
+    // Give the match's slot back to the tick engine and finish the recording; tick thread only
+    private void finish() {
+        if (closed) return;
+        closed = true;
+        engine.release(this);
+        Object pending = recorderHandoff.getAndSet(RECORDING_CLOSED);
+        if (recorder != null) replays.finish(recorder);
+        else if (pending instanceof MatchRecorder) replays.discard((MatchRecorder) pending);
     }
 
+    // Takes the player out; the car is removed on the next tick
     public void removePlayer(String name) {
-        sessions.remove(name);
-        players.remove(name);
-        inputs.remove(name);
+        ClientSession cs = members.remove(name);
+        if (cs != null) cs.leaveMatch(this);
+        enqueue(MatchCommands.REMOVE_PLAYER, name, null);
+    }
+
+    private void despawn(String name) {
+        int slot = world.indexOf(name);
+        if (slot < 0) return;
+        removeCar(slot);
         // If only one player remains in an active match, declare them the winner
-        if (sessions.size() == 1 && !roundOver) {
-            String winner = sessions.keySet().iterator().next();
+        if (clientCount == 1 && !roundOver) {
+            String winner = null;
+            for (int i = 0, n = world.count; i < n; i++) {
+                if (clients[i] != null) winner = world.name[i];
+            }
             roundOver = true;
+            recordGameOver(winner, "forfeit");
             StringBuilder sb = new StringBuilder();
             sb.append('{');
             sb.append("\"type\":\"gameover\",");
@@ -127,30 +359,78 @@ public class Match {
             sb.append('}');
             broadcastState(sb.toString());
             System.out.println("[CLEANUP] Player " + name + " disconnected, declaring " + winner + " as winner for match " + id);
+            finish();
+        } else if (clientCount == 0) {
+            finish();
         }
     }
 
-    public void updateInput(String name, PlayerInput in) {
+    // Publishes a connection's input to its car; called on the connection's IO thread, no lookups or locks
+    public void updateInput(ClientSession cs, InputSlot in) {
         if (in == null) return;
-        // Block input if round is frozen (countdown)
-        if (!roundFrozen) {
-            inputs.put(name, in);
-            // Latch jump to avoid missed single-frame presses between network/tick boundaries
-            PlayerState p = players.get(name);
-            // Latch jump on any new jump press (seq != 0 and jump is true and wasn't already latched)
-            if (p != null && in.seq != 0 && in.jump) p.pendingJump = true;
-        } else {
-            // During freeze, ignore all input except for updating lastAppliedSeq for smooth client prediction
-            PlayerState p = players.get(name);
-            if (p != null) p.lastAppliedSeq = in.seq;
+        InputSlot slot = cs.input;
+        if (slot == null) return;
+        // During freeze (countdown) the tick only takes lastAppliedSeq from it, for smooth client prediction
+        slot.publish(in);
+        // Latch jump to avoid missed single-frame presses between network/tick boundaries; the tick drops
+        // presses latched during the countdown
+        if (in.seq != 0 && in.jump) slot.latchJump();
+        if (wakeOnInput && (in.throttle != 0 || in.steer != 0 || in.jump || in.boost)) wake();
+    }
+
+    // Refill a player's boost on the next tick; false if the player is not in this match
+    public boolean refillBoost(String name) {
+        if (!members.containsKey(name)) return false;
+        enqueue(MatchCommands.REFILL_BOOST, name, null);
+        return true;
+    }
+
+    void tick() {
+        MatchTickEngine.Shard s = shard;
+        profile = s != null ? s.profile : DETACHED_PROFILE;
+        clockNanos += rates.stepNanos;
+        applyCommands();
+        runTick();
+    }
+
+    // Called by the engine each step before tick(): while the match sleeps, advances its clock and returns true.
+    // Returns false (tick now) once woken or once the next step reaches the wake-up deadline.
+    boolean doze() {
+        if (!asleep) return false;
+        if (wakeRequested || (clockNanos + rates.stepNanos) / 1_000_000 >= wakeAtMs) {
+            asleep = false;
+            wakeOnInput = false;
+            wakeRequested = false;
+            forceSnapshot = true;
+            return false;
+        }
+        clockNanos += rates.stepNanos;
+        return true;
+    }
+
+    // Sleep until game time `untilMs`; onInput: a moving input wakes it too
+    private void sleep(long untilMs, boolean onInput) {
+        wakeAtMs = untilMs;
+        wakeOnInput = onInput;
+        asleep = true;
+        // A command or input that raced with falling asleep must not wait for the deadline
+        if (commands.hasPending() || onInput && anyMovingInput()) wakeRequested = true;
+    }
+
+    private boolean anyMovingInput() {
+        for (int i = 0, n = world.count; i < n; i++) {
+            InputSlot in = published[i];
+            in.readInto(scratch);
+            if (scratch.throttle != 0 || scratch.steer != 0 || scratch.jump || scratch.boost || in.hasJump()) return true;
         }
+        return false;
     }
 
-    private void tick() {
+    private long clockMs() { return clockNanos / 1_000_000; }
+
+    private void runTick() {
         // --- Handle round timer ---
-        // Debug: print player names in this match before broadcasting state
-        System.out.println("[DEBUG] Match " + id + " players: " + players.keySet());
-        long now = System.currentTimeMillis();
+        long now = clockMs();
         long timerMs = Math.max(0, roundEndTime - now);
         boolean overtime = false;
 
@@ -182,584 +462,294 @@ public class Match {
                 else sb.append("null");
                 sb.append('}');
                 System.out.println("[DEBUG] Broadcasting gameover: " + sb.toString());
+                recordGameOver(winner, "timer");
                 broadcastState(sb.toString());
+                finish();
             }
         }
         // --- Handle round start countdown freeze logic ---
         // (reuse 'now' variable)
         long msLeft = roundCountdownEndTime - now;
-        System.out.println("[DEBUG] TICK: match=" + id + ", roundFrozen=" + roundFrozen + ", msLeft=" + msLeft + ", roundCountdownEndTime=" + roundCountdownEndTime + ", now=" + now);
         if (roundFrozen) {
             if (msLeft <= 0) {
                 System.out.println("[DEBUG] msLeft <= 0 reached for match " + id + ", msLeft=" + msLeft + ", now=" + now + ", roundCountdownEndTime=" + roundCountdownEndTime);
                 roundFrozen = false;
                 msLeft = 0;
-                System.out.println("[DEBUG] roundFrozen set to FALSE for match " + id + " at " + System.currentTimeMillis());
+                System.out.println("[DEBUG] roundFrozen set to FALSE for match " + id + " at " + now);
                 // Start round timer when countdown ends
-                roundEndTime = System.currentTimeMillis() + ROUND_DURATION_MS;
+                roundEndTime = now + ROUND_DURATION_MS;
                 roundOver = false;
                 System.out.println("[DEBUG] Countdown ended, game starting for match " + id);
+                // The log skips the countdown: replays start from the state the round starts with
+                if (recorder != null) recorder.keyframe(world);
             } else {
                 // During preround countdown, rotate playerB to face left (angle = Math.PI) for the entire countdown
-                if (playerB != null && players.containsKey(playerB)) {
-                    PlayerState pB = players.get(playerB);
-                    pB.angle = Math.PI;
+                if (slotB >= 0) {
+                    world.angle[slotB] = Math.PI;
                 }
-                // Broadcast countdown state every tick
-                System.out.println("[DEBUG] Pregame countdown running: msLeft=" + msLeft + ", match=" + id);
-                // Debug: print player names in this match before broadcasting state (every tick)
-                System.out.println("[DEBUG] Match " + id + " players: " + players.keySet());
-                StringBuilder sb = new StringBuilder();
-                sb.append('{');
-                sb.append("\"type\":\"state\",");
-                sb.append("\"match\":\"").append(id).append("\",");
-                sb.append("\"tick\":").append(tickCounter).append(',');
-                sb.append("\"scoreA\":").append(scoreA).append(",\"scoreB\":").append(scoreB).append(',');
-                sb.append("\"ball\":{").append("\"x\":").append(ball.x).append(",\"y\":").append(ball.y).append(",\"z\":").append(ball.z).append("},");
-                sb.append("\"players\":[");
-                boolean first = true;
-                for (Map.Entry<String, PlayerState> e : players.entrySet()) {
-                    String name = e.getKey();
-                    PlayerState p = e.getValue();
-                    if (!first) sb.append(','); first = false;
-                    sb.append('{')
-                        .append("\"name\":\"").append(name).append("\",")
-                        .append("\"x\":").append(p.x).append(',')
-                        .append("\"y\":").append(p.y).append(',')
-                        .append("\"z\":").append(p.z).append(',')
-                        .append("\"angle\":").append(p.angle).append(',')
-                        .append("\"lastSeq\":").append(p.lastAppliedSeq).append(',')
-                        .append("\"boostFuel\":").append(p.boostFuel).append(',');
-                    if (name.equals(playerA)) {
-                        sb.append("\"color\":\"blue\"");
-                    } else if (name.equals(playerB)) {
-                        sb.append("\"color\":\"red\"");
-                    } else {
-                        sb.append("\"color\":\"gray\"");
-                    }
-                    sb.append('}');
+                for (int i = 0, n = world.count; i < n; i++) {
+                    published[i].readInto(scratch);
+                    published[i].takeJump();
+                    world.lastAppliedSeq[i] = scratch.seq;
                 }
-                sb.append(']');
-                sb.append(",\"countdownMs\":").append(msLeft);
-                sb.append(",\"timerMs\":").append(ROUND_DURATION_MS);
-                sb.append('}');
-                broadcastState(sb.toString());
+                // Nothing moves during the countdown: send it, then sleep until the next update or its end
+                broadcastSnapshot(tickCounter, msLeft, ROUND_DURATION_MS);
                 tickCounter++;
+                sleep(Math.min(now + COUNTDOWN_UPDATE_MS, roundCountdownEndTime), false);
                 return;
             }
         }
-        // Player-player collision (simple elastic, like wall), only if on same z level
-        final double zThreshold = 3;{ // max vertical distance to allow collision (less strict z-level matching)
-        for (Map.Entry<String, PlayerState> e1 : players.entrySet()) {
-            PlayerState p1 = e1.getValue();
-            double p1Scale = 1.0 + Math.min(1.0, p1.z * 0.12);
-            double p1Radius = 24.0 * p1Scale;
-            for (Map.Entry<String, PlayerState> e2 : players.entrySet()) {
-                if (e1 == e2) continue;
-                PlayerState p2 = e2.getValue();
-                double p2Scale = 1.0 + Math.min(1.0, p2.z * 0.12);
-                double p2Radius = 24.0 * p2Scale;
-                if (Math.abs(p1.z - p2.z) > zThreshold) continue; // skip collision if not on same level
-                double dx = p2.x - p1.x, dy = p2.y - p1.y;
-                double dist = Math.hypot(dx, dy);
-                double minDist = p1Radius + p2Radius;
-                if (dist < minDist && dist > 0.0001) {
-                    // Push players apart
-                    double nx = dx / dist;
-                    double ny = dy / dist;
-                    double overlap = minDist - dist;
-                    // Move each player half the overlap
-                    p1.x -= nx * (overlap / 2.0);
-                    p1.y -= ny * (overlap / 2.0);
-                    p2.x += nx * (overlap / 2.0);
-                    p2.y += ny * (overlap / 2.0);
-                    // Reflect velocities (like wall, with damping)
-                    double v1n = p1.vx * nx + p1.vy * ny;
-                    double v2n = p2.vx * nx + p2.vy * ny;
-                    // Only reflect if moving toward each other
-                    if (v1n - v2n > 0) {
-                        double bounce = 0.8;
-                        double v1nNew = v2n * bounce;
-                        double v2nNew = v1n * bounce;
-                        p1.vx += (v1nNew - v1n) * nx;
-                        p1.vy += (v1nNew - v1n) * ny;
-                        p2.vx += (v2nNew - v2n) * nx;
-                        p2.vy += (v2nNew - v2n) * ny;
-                    }
-                }
-            }
-        }
+        // Car-car contacts, then the ball, then the cars move, then car-ball contacts
+        long phase = System.nanoTime();
+        world.collideCars();
+        // Collision runs in two parts (car-car here, car-ball below); recorded once as their sum
+        long collisionNanos = System.nanoTime() - phase;
         try {
             long t0 = System.nanoTime();
-            double dt = 0.033;
-            long tickId = System.currentTimeMillis();
+            phase = t0;
+            PhysicsWorld.Step step = rates.step;
             tickCounter++;
-            // advance ball physics
-            if (ball == null) {
-                System.out.println("[ERROR] ball is null in tick()");
-            }
-            if (repo == null) {
-                System.out.println("[ERROR] repo is null in tick()");
-            }
-            ball.update(dt);
-            // ball-wall collision (allow entry into goal zones, restrict only at outer canvas edges)
-            // Canvas: 1040x600, field: x=120..919, y=0..599, goals: x=0..119 (left), x=920..1039 (right), ball radius=30
-            // Ball border collision at true canvas edge (0..1040, 0..600)
-            // Only restrict at outer canvas edge if not in goal zone (y in goal range)
-            boolean inRightGoal = (ball.x > 920 && ball.y > 210 && ball.y < 390);
-            boolean inLeftGoal = (ball.x < 120 && ball.y > 210 && ball.y < 390);
-            double ballMaxX = inRightGoal ? 1040 : 1040 - 30;
-            double ballMinX = inLeftGoal ? 0 : 30;
-            // Ball can only enter goal if z <= 6
-            double ballRadius = 30;
-            int goalWidth = 145;
-            // Left goal: ball is completely in if (ball.x + ballRadius <= 0)
-            // Only allow entry if z <= 6.5 at the moment of crossing the edge
-            int fieldLeft = goalWidth, fieldRight = 1040 - goalWidth, width = 1040;
-            if (ball.z > 6.5) {
-                if (ball.x - ballRadius < fieldLeft) {
-                    ball.x = fieldLeft + ballRadius;
-                    ball.vx = Math.abs(ball.vx);
-                } else if (ball.x + ballRadius > fieldRight) {
-                    ball.x = fieldRight - ballRadius;
-                    ball.vx = -Math.abs(ball.vx);
-                }
-            } else {
-                // simplified scoring logic: score is won when ball.x + ballRadius < 120 and ball.x - ballRadius > 1040 - 120
-                // Debug print removed
-                // Left goal: ball fully crosses left line
-                boolean scored = false;
-                boolean leftGoal = false, rightGoal = false;
-                double ballHaloPadding = 5; // extra padding for goal detection
-                if (ball.x + ballRadius + ballHaloPadding < 120) {
-                    leftGoal = true;
-                    System.out.println("[DEBUG] Left goal scored! ball.x=" + ball.x + ", ballRadius=" + ballRadius);
-                    if (playerB != null) {
-                        System.out.println("[DEBUG] scoreB++");
-                        scoreB++;
-                        scored = true;
-                    }
-                    ball.reset();
-                    // Reset both players to their spawn positions
-                    if (playerA != null && players.containsKey(playerA)) players.put(playerA, PlayerState.spawn(playerA, 180, 300, 0));
-                    if (playerB != null && players.containsKey(playerB)) players.put(playerB, PlayerState.spawn(playerB, 860, 400, Math.PI));
-                    // Reset ball to center after goal
-                    if (ball != null) { ball.x = 520; ball.y = 300; ball.vx = 0; ball.vy = 0; ball.z = 0; ball.vz = 0; }
-                } else if (ball.x - ballRadius - ballHaloPadding > 920) {
-                    rightGoal = true;
-                    System.out.println("[DEBUG] Right goal scored! ball.x=" + ball.x + ", ballRadius=" + ballRadius);
-                    if (playerA != null) {
-                        System.out.println("[DEBUG] scoreA++");
-                        scoreA++;
-                        scored = true;
-                    }
-                    ball.reset();
-                    // Reset both players to their spawn positions
-                    if (playerA != null && players.containsKey(playerA)) players.put(playerA, PlayerState.spawn(playerA, 180, 300, 0));
-                    if (playerB != null && players.containsKey(playerB)) players.put(playerB, PlayerState.spawn(playerB, 860, 400, Math.PI));
-                    // Reset ball to center after goal
-                    if (ball != null) { ball.x = 520; ball.y = 300; ball.vx = 0; ball.vy = 0; ball.z = 0; ball.vz = 0; }
-                }
-                // If in overtime and a point is scored, end the game and declare winner
-                // Use the timerMs variable already declared at the top of tick()
-                if (!roundOver && timerMs <= 0 && scoreA != scoreB) {
-                    roundOver = true;
-                    String winner = null;
-                    if (scoreA > scoreB) winner = playerA;
-                    else if (scoreB > scoreA) winner = playerB;
-                    StringBuilder sb = new StringBuilder();
-                    sb.append('{');
-                    sb.append("\"type\":\"gameover\",");
-                    sb.append("\"match\":\"").append(id).append("\",");
-                    sb.append("\"scoreA\":").append(scoreA).append(",\"scoreB\":").append(scoreB).append(',');
-                    sb.append("\"winner\":");
-                    if (winner != null) sb.append('"').append(winner).append('"');
-                    else sb.append("null");
-                    sb.append('}');
-                    broadcastState(sb.toString());
-                }
-                if (ball.x < ballMinX) { ball.x = ballMinX; ball.vx = -ball.vx * 0.8; }
-                if (ball.x > ballMaxX) { ball.x = ballMaxX; ball.vx = -ball.vx * 0.8; }
-            }
-            if (ball.y < 30) { ball.y = 30; ball.vy = -ball.vy * 0.8; }
-            if (ball.y > 600 - 30) { ball.y = 600 - 30; ball.vy = -ball.vy * 0.8; }
-
-            // --- GREEN PATCH (CORNER) COLLISION LOGIC FOR BALL (MATCHES CAR LOGIC) --- 
-            double[][] patches = {
-                {0, 0, 120, 120},           // top-left
-                {920, 0, 120, 120},         // top-right
-                {0, 480, 120, 120},         // bottom-left
-                {920, 480, 120, 120}        // bottom-right
-            };
-            for (double[] patch : patches) {
-                double px = patch[0], py = patch[1], pw = patch[2], ph = patch[3];
-                double closestX = Math.max(px, Math.min(ball.x, px + pw));
-                double closestY = Math.max(py, Math.min(ball.y, py + ph));
-                double dx = ball.x - closestX, dy = ball.y - closestY;
-                if ((dx * dx + dy * dy) <= (ballRadius * ballRadius)) {
-                    double len = Math.hypot(dx, dy);
-                    double nx = (len == 0) ? 1 : dx / len;
-                    double ny = (len == 0) ? 0 : dy / len;
-                    // Clamp to edge
-                    ball.x = closestX + nx * (ballRadius + 0.1);
-                    ball.y = closestY + ny * (ballRadius + 0.1);
-                    // Reflect and dampen normal velocity, keep tangent (like wall)
-                    double vdotn = ball.vx * nx + ball.vy * ny;
-                    double vnormx = nx * vdotn;
-                    double vnormy = ny * vdotn;
-                    double vtangx = ball.vx - vnormx;
-                    double vtangy = ball.vy - vnormy;
-                    double bounce = 0.5;
-                    double reflectedVnormx = -vnormx * bounce;
-                    double reflectedVnormy = -vnormy * bounce;
-                    ball.vx = vtangx + reflectedVnormx;
-                    ball.vy = vtangy + reflectedVnormy;
-                    break;
-                }
-            }
-            
+            if (recorder != null) recorder.tick(tickCounter, timerMs);
+            // Goals are handled by onGoal() as the ball crosses the line
+            tickTimerMs = timerMs;
+            world.stepBall(step, goalListener);
+            phase = mark(TickProfile.Phase.PHYSICS, phase);
             // always advance physics and persist positions each tick
-            for (Map.Entry<String, PlayerState> e : players.entrySet()) {
-                String name = e.getKey();
-                PlayerState p = e.getValue();
-                PlayerInput in = inputs.getOrDefault(name, new PlayerInput(0,0,0,false,false,false));
-                p.applyInput(in, dt);
-                p.lastAppliedSeq = in.seq;
-                if (repo == null) {
-                    System.out.println("[ERROR] repo is null when calling enqueuePosition for player " + name);
-                }
-                repo.enqueuePosition(name, tickId, p.x, p.y, p.z, p.vx, p.vy, p.vz);
+            int n = world.count;
+            for (int i = 0; i < n; i++) {
+                InputSlot in = published[i];
+                in.readInto(scratch);
+                boolean jumpLatched = in.takeJump();
+                if (recorder != null) recorder.input(world, i, scratch, jumpLatched);
+                world.setInput(i, scratch);
+                if (jumpLatched) world.pendingJump[i] = true;
             }
-
-            // Now handle ball-player collision after all movement updates
-            for (Map.Entry<String, PlayerState> e : players.entrySet()) {
-                PlayerState p = e.getValue();
-                // Only collide if ball and player are on the same z level (within zThreshold)
-                double dz = p.z - ball.z;
-                if (Math.abs(dz) > zThreshold) continue;
-                double pScale = 1.0 + Math.min(1.0, p.z * 0.12);
-                double pRadius = 24.0 * pScale;
-                double bScale = 1.0 + Math.min(1.0, ball.z * 0.12);
-                double bRadius = 20.0 * bScale;
-                double dx = ball.x - p.x, dy = ball.y - p.y;
-                double carSpeed = Math.hypot(p.vx, p.vy);
-                double minDist = pRadius + bRadius;
-                double dist = Math.hypot(dx, dy);
-                if (dist < minDist) {
-                    double nx = dx / dist;
-                    double ny = dy / dist;
-                    if (carSpeed > 400.0) {
-                        // High-speed: launch ball and slow car (jump)
-                        double vxNorm = p.vx / carSpeed;
-                        double vyNorm = p.vy / carSpeed;
-                        double transferVx = vxNorm * (carSpeed * 1.2);
-                        double transferVy = vyNorm * (carSpeed * 1.2);
-                        p.vx *= 0.1;
-                        p.vy *= 0.1;
-                        ball.vx += transferVx;
-                        ball.vy += transferVy;
-                        // Ball jump effect if hit hard and on ground
-                        if (ball.z <= 0.001) {
-                            ball.vz = 60; // or adjust for desired jump height
-                        }
-                    } else if (carSpeed > 200.0) {
-                        // Medium-speed: dramatic velocity transfer, no jump, car slows a lot
-                        double vxNorm = p.vx / carSpeed;
-                        double vyNorm = p.vy / carSpeed;
-                        double transferVx = vxNorm * (carSpeed * 1.1);
-                        double transferVy = vyNorm * (carSpeed * 1.1);
-                        p.vx *= 0.05;
-                        p.vy *= 0.05;
-                        ball.vx += transferVx;
-                        ball.vy += transferVy;
-                        // No jump for the ball
-                    } else {
-                        // Low-speed: use 2D elastic collision (equal mass)
-                        // Relative velocity
-                        double rvx = ball.vx - p.vx;
-                        double rvy = ball.vy - p.vy;
-                        // Only collide if moving toward each other
-                        double relVelAlongNormal = rvx * nx + rvy * ny;
-                        if (relVelAlongNormal < 0) {
-                            // Elastic collision, equal mass
-                            double ballVn = ball.vx * nx + ball.vy * ny;
-                            double ballVt = -ball.vx * ny + ball.vy * nx;
-                            double carVn = p.vx * nx + p.vy * ny;
-                            double carVt = -p.vx * ny + p.vy * nx;
-                            // Swap normal components, keep tangential
-                            double newBallVn = carVn;
-                            double newCarVn = ballVn;
-                            // Damping for realism
-                            double bounce = 0.85;
-                            newBallVn *= bounce;
-                            newCarVn *= bounce;
-                            // Convert back to x/y
-                            ball.vx = newBallVn * nx - ballVt * ny;
-                            ball.vy = newBallVn * ny + ballVt * nx;
-                            p.vx = newCarVn * nx - carVt * ny;
-                            p.vy = newCarVn * ny + carVt * nx;
-                        }
-                    }
-                    // Only push the ball away from the player; never modify the player's position
-                    ball.x = p.x + nx * minDist;
-                    ball.y = p.y + ny * minDist;
-                }
+            world.stepCars(step);
+            for (int i = 0; i < n; i++) {
+                repo.enqueuePosition(world.name[i], tickCounter, world.x[i], world.y[i], world.z[i], world.vx[i], world.vy[i], world.vz[i]);
             }
-            // only build and broadcast visual state every BROADCAST_SKIP ticks
-            if (tickCounter % BROADCAST_SKIP == 0) {
-                StringBuilder sb = new StringBuilder();
-                sb.append('{');
-                sb.append("\"type\":\"state\",");
-                sb.append("\"match\":\"").append(id).append("\",");
-                sb.append("\"tick\":").append(tickId).append(',');
-                sb.append("\"scoreA\":").append(scoreA).append(",\"scoreB\":").append(scoreB).append(',');
-                sb.append("\"ball\":{").append("\"x\":").append(ball.x).append(",\"y\":").append(ball.y).append(",\"z\":").append(ball.z).append("},");
-                sb.append("\"players\":[");
-                boolean first = true;
-                for (Map.Entry<String, PlayerState> e : players.entrySet()) {
-                    String name = e.getKey();
-                    PlayerState p = e.getValue();
-                    if (!first) sb.append(','); first = false;
-                    sb.append('{')
-                        .append("\"name\":\"").append(name).append("\",")
-                        .append("\"x\":").append(p.x).append(',')
-                        .append("\"y\":").append(p.y).append(',')
-                        .append("\"z\":").append(p.z).append(',')
-                        .append("\"angle\":").append(p.angle).append(',')
-                        .append("\"lastSeq\":").append(p.lastAppliedSeq).append(',')
-                        .append("\"boostFuel\":").append(p.boostFuel).append(',');
-                    if (name.equals(playerA)) {
-                        sb.append("\"color\":\"blue\"");
-                    } else if (name.equals(playerB)) {
-                        sb.append("\"color\":\"red\"");
-                    } else {
-                        sb.append("\"color\":\"gray\"");
-                    }
-                    sb.append('}');
-                }
-                sb.append(']');
-                sb.append(",\"countdownMs\":0");
-                sb.append(",\"timerMs\":").append(timerMs);
-                sb.append('}');
-                broadcastState(sb.toString());
+            phase = mark(TickProfile.Phase.INPUT, phase);
+            world.collideBall();
+            if (recorder != null) recorder.endTick(world, tickCounter);
+            record(TickProfile.Phase.COLLISION, collisionNanos + (System.nanoTime() - phase));
+            restTicks = world.atRest() ? restTicks + 1 : 0;
+            boolean rest = restTicks >= REST_TICKS && !roundOver;
+            // only build and broadcast visual state on the steps that send a snapshot, on wake-ups and before sleeping
+            if (rates.sends(tickCounter) || forceSnapshot || rest) {
+                forceSnapshot = false;
+                broadcastSnapshot(tickCounter, 0, timerMs);
+            }
+            if (rest) {
+                // Wake for the clock display and the end of the round (overtime has no end to wait for)
+                long until = now + REST_UPDATE_MS;
+                if (timerMs > 0) until = Math.min(until, roundEndTime);
+                sleep(until, true);
             }
             long t1 = System.nanoTime();
             long ms = (t1 - t0) / 1_000_000;
             if (ms > 10) {
-                System.out.println("[Match] id=" + id + " tick=" + tickCounter + " players=" + players.size() + " durationMs=" + ms + " dbQueue=" + repo.getQueueSize());
+                System.out.println("[Match] id=" + id + " tick=" + tickCounter + " players=" + world.count + " durationMs=" + ms + " dbQueue=" + repo.getQueueSize());
             }
         } catch (Exception ex) {
             ex.printStackTrace();
         }
-        }
     }
 
-    private void broadcastState(String json) {
-        for (Map.Entry<String, WebSocketSession> e : sessions.entrySet()) {
-            String player = e.getKey();
-            WebSocketSession s = e.getValue();
-            if (s == null) {
-                System.out.println("[WARN] Session is null for player " + player);
-                continue;
+    // Scoring rules, run by the physics step at the moment the ball crosses a goal line
+    private void onGoal(int side) {
+        if (side == PhysicsWorld.GOAL_LEFT) {
+            System.out.println("[DEBUG] Left goal scored! ball.x=" + ball.x);
+            if (playerB != null) {
+                System.out.println("[DEBUG] scoreB++");
+                scoreB++;
             }
-            sendExecutor.submit(() -> {
-                synchronized (s) {
-                    try {
-                        @SuppressWarnings("null")
-                        TextMessage msg = new TextMessage((CharSequence) json);
-                        if (s.isOpen()) s.sendMessage(msg);
-                    } catch (IllegalStateException | IOException ex) {
-                        System.out.println("[ERROR] Exception sending message to player " + player + ": " + ex);
-                        ex.printStackTrace();
-                        // remove and close broken session
-                        sessions.remove(player);
-                        inputs.remove(player);
-                        players.remove(player);
-                        try { s.close(); } catch (Exception ex2) { ex2.printStackTrace(); }
-                    }
-                }
-            });
+        } else {
+            System.out.println("[DEBUG] Right goal scored! ball.x=" + ball.x);
+            if (playerA != null) {
+                System.out.println("[DEBUG] scoreA++");
+                scoreA++;
+            }
+        }
+        // Reset ball to center and both players to their spawn positions
+        if (recorder != null) recorder.goal(side, scoreA, scoreB);
+        ball.reset();
+        if (slotA >= 0) world.respawn(slotA, 180, 300, 0);
+        if (slotB >= 0) world.respawn(slotB, 860, 400, Math.PI);
+        // If in overtime and a point is scored, end the game and declare winner
+        if (!roundOver && tickTimerMs <= 0 && scoreA != scoreB) {
+            roundOver = true;
+            String winner = null;
+            if (scoreA > scoreB) winner = playerA;
+            else if (scoreB > scoreA) winner = playerB;
+            recordGameOver(winner, "overtime");
+            StringBuilder sb = new StringBuilder();
+            sb.append('{');
+            sb.append("\"type\":\"gameover\",");
+            sb.append("\"match\":\"").append(id).append("\",");
+            sb.append("\"scoreA\":").append(scoreA).append(",\"scoreB\":").append(scoreB).append(',');
+            sb.append("\"winner\":");
+            if (winner != null) sb.append('"').append(winner).append('"');
+            else sb.append("null");
+            sb.append('}');
+            broadcastState(sb.toString());
+            finish();
         }
     }
 
-    private static class PlayerState {
-        @SuppressWarnings("unused")
-    final String name; double x,y,vx,vy,angle,z,vz; double boostFuel=100; int lastAppliedSeq = 0; boolean pendingJump = false;
-        boolean boostLocked = false;
-        PlayerState(String name){this.name=name;}
-        static PlayerState spawn(String name){ PlayerState p=new PlayerState(name); p.x=Math.random()*400+100; p.y=Math.random()*200+100; p.angle=0; return p; }
-        static PlayerState spawn(String name, double x, double y, double angle) {
-            PlayerState p = new PlayerState(name);
-            p.x = x;
-            p.y = y;
-            p.angle = angle;
-            return p;
+    // Logs the result to the recording and queues it for the leaderboard; winner null = draw
+    private void recordGameOver(String winner, String reason) {
+        if (recorder != null) recorder.gameOver(scoreA, scoreB, winner);
+        // Only 1v1 results between the two sides are rated
+        boolean rated = playerA != null && playerB != null && (winner == null || winner.equals(playerA) || winner.equals(playerB));
+        if (results != null && rated) {
+            results.submit(id, playerA, playerB, scoreA, scoreB, winner, reason);
         }
-        void applyInput(PlayerInput in, double dt){
-            double forward = in.throttle;
-            double accelMag = 700.0 * forward * dt;
-            boolean boostLockActive = false;
-            // --- BOOST LOCKOUT LOGIC ---
-            // If jump is pressed, lock boost until boost key is released
-            if (in.jump && z <= 0.001) {
-                boostLocked = true;
-            }
-            if (!in.boost) {
-                boostLocked = false;
-            }
-            // Boost lock: if in air and boosting and has fuel, freeze z/vz
-            if (in.boost && boostFuel > 0 && z > 0.001 && !boostLocked) {
-                boostLockActive = true;
-            }
-            if (in.boost && boostFuel > 0 && !boostLocked) { accelMag += 800.0 * dt; boostFuel -= 40.0 * dt; }
-            if (in.brake) {
-                accelMag = 0;
-            }
-            // --- GREEN PATCH (CORNER) COLLISION LOGIC (MATCH CLIENT & SOLO SERVER) ---
-            double carRadius = 24.0;
-            double[][] patches = {
-                {0, 0, 120, 120},           // top-left
-                {920, 0, 120, 120},         // top-right
-                {0, 480, 120, 120},         // bottom-left
-                {920, 480, 120, 120}        // bottom-right
-            };
-            boolean blocked = false;
-            for (double[] patch : patches) {
-                double px = patch[0], py = patch[1], pw = patch[2], ph = patch[3];
-                double closestX = Math.max(px, Math.min(x, px + pw));
-                double closestY = Math.max(py, Math.min(y, py + ph));
-                double dx = x - closestX, dy = y - closestY;
-                if ((dx * dx + dy * dy) <= (carRadius * carRadius)) {
-                    double len = Math.hypot(dx, dy);
-                    double nx = (len == 0) ? 1 : dx / len;
-                    double ny = (len == 0) ? 0 : dy / len;
-                    // Clamp to edge
-                    x = closestX + nx * (carRadius + 0.1);
-                    y = closestY + ny * (carRadius + 0.1);
-                    // Reflect and dampen normal velocity, keep tangent (like wall)
-                    double vdotn = vx * nx + vy * ny;
-                    double vnormx = nx * vdotn;
-                    double vnormy = ny * vdotn;
-                    double vtangx = vx - vnormx;
-                    double vtangy = vy - vnormy;
-                    double bounce = 0.5;
-                    double reflectedVnormx = -vnormx * bounce;
-                    double reflectedVnormy = -vnormy * bounce;
-                    vx = vtangx + reflectedVnormx;
-                    vy = vtangy + reflectedVnormy;
-                    // Do not block input/acceleration
-                    break;
-                }
-            }
-            double facingX = Math.cos(angle);
-            double facingY = Math.sin(angle);
-            double regularSpeed = 700.0 * dt;
-            this.vx += facingX * accelMag;
-            this.vy += facingY * accelMag;
-            double speed = Math.hypot(this.vx, this.vy);
-            if (speed <= regularSpeed + 1.0) {
-                double proj = this.vx * facingX + this.vy * facingY;
-                this.vx = facingX * proj;
-                this.vy = facingY * proj;
-            }
-            if (Math.abs(forward) < 0.01 && speed <= regularSpeed + 1.0) {
-                this.vx *= 0.7;
-                this.vy *= 0.7;
-            }
-            if (in.brake) {
-                this.vx *= 0.85;
-                this.vy *= 0.85;
-                if (in.throttle != 0) {
-                    double slowSpeed = 180.0;
-                    this.vx = facingX * slowSpeed * Math.signum(in.throttle);
-                    this.vy = facingY * slowSpeed * Math.signum(in.throttle);
-                }
-            }
-            this.vx += facingX * accelMag;
-            this.vy += facingY * accelMag;
-            speed = Math.hypot(this.vx, this.vy);
-            if (speed <= regularSpeed + 1.0) {
-                double proj = this.vx * facingX + this.vy * facingY;
-                this.vx = facingX * proj;
-                this.vy = facingY * proj;
-            }
-            double steerFactor = 2.0 * (1.0 + speed / 300.0);
-            if (in.brake) {
-                // If brake is held, increase turn speed instead of halving
-                steerFactor *= 2; // Increase turn speed by 50% when braking
-            }
-            if (in.steer != 0) {
-                angle += in.steer * steerFactor * dt;
-            }
-            double damping = Math.max(0.0, 1.0 - 4.0 * dt); // more friction for cars
-            this.vx *= damping; this.vy *= damping;
-            x += this.vx * dt; y += this.vy * dt;
-            double scale = 1.0 + Math.min(1.0, z * 0.12);
-            double radius = 20.0 * scale;
-            boolean inRightGoal = (x > 920 && y > 210 && y < 390);
-            boolean inLeftGoal = (x < 120 && y > 210 && y < 390);
-            double maxX = inRightGoal ? 1040 : 1040 - radius;
-            double minX = inLeftGoal ? 0 : radius;
-            double minY = radius, maxY = 600 - radius;
-            if (x < minX) { x = minX; this.vx = -this.vx * 0.5; }
-            if (x > maxX) { x = maxX; this.vx = -this.vx * 0.5; }
-            if (y < minY) { y = minY; this.vy = -this.vy * 0.5; }
-            if (y > maxY) { y = maxY; this.vy = -this.vy * 0.5; }
-            if (Math.abs(this.vx) < 1.0) this.vx = 0.0; if (Math.abs(this.vy) < 1.0) this.vy = 0.0;
-            if (pendingJump && z<=0.001) { vz = 42; pendingJump = false; }
-            if (in.jump && z<=0.001) {
-                vz = 42;
-            }
-            if (boostLockActive) {
-                // Lock z/vz while boosting in air with fuel
-                // Do not update vz/z, just freeze at current values
+    }
+
+    // Build the state snapshot once per protocol actually in use and send it to every session
+    private void broadcastSnapshot(long jsonTick, long countdownMs, long timerMs) {
+        long phase = System.nanoTime();
+        GameEvents.SnapshotSerialize event = new GameEvents.SnapshotSerialize();
+        event.begin();
+        boolean anyText = false, anyBinary = false;
+        for (int i = 0, n = world.count; i < n; i++) {
+            ClientSession cs = clients[i];
+            if (cs == null) continue;
+            if (cs.isBinary()) anyBinary = true; else anyText = true;
+        }
+        String json = anyText ? buildStateJson(jsonTick, countdownMs, timerMs) : null;
+        if (anyBinary) {
+            if (builtRosterVersion != rosterVersion) rebuildRoster();
+            fillSnapshot(countdownMs, timerMs);
+        }
+        phase = mark(TickProfile.Phase.SERIALIZE, phase);
+        event.end();
+        if (event.shouldCommit()) {
+            event.matchId = id;
+            event.tick = tickCounter;
+            event.players = world.count;
+            event.jsonBytes = json != null ? json.length() : 0;
+            event.binary = anyBinary;
+            event.commit();
+        }
+        lastBroadcastBytes = broadcast(json, anyBinary);
+        mark(TickProfile.Phase.ENQUEUE, phase);
+    }
+
+    // Record a phase in both the shard profile and this match's totals; returns now, so consecutive phases chain
+    private long mark(TickProfile.Phase phase, long since) {
+        long now = System.nanoTime();
+        record(phase, now - since);
+        return now;
+    }
+
+    private void record(TickProfile.Phase phase, long nanos) {
+        profile.record(phase, nanos);
+        phases.record(phase, nanos);
+    }
+
+    String buildStateJson(long tick, long countdownMs, long timerMs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        sb.append("\"type\":\"state\",");
+        sb.append("\"match\":\"").append(id).append("\",");
+        sb.append("\"tick\":").append(tick).append(',');
+        sb.append("\"serverMs\":").append(clockMs()).append(',');
+        sb.append("\"scoreA\":").append(scoreA).append(",\"scoreB\":").append(scoreB).append(',');
+        sb.append("\"ball\":{").append("\"x\":").append(ball.x).append(",\"y\":").append(ball.y).append(",\"z\":").append(ball.z).append("},");
+        sb.append("\"players\":[");
+        for (int i = 0, n = world.count; i < n; i++) {
+            if (i > 0) sb.append(',');
+            sb.append('{')
+                .append("\"name\":\"").append(world.name[i]).append("\",")
+                .append("\"x\":").append(world.x[i]).append(',')
+                .append("\"y\":").append(world.y[i]).append(',')
+                .append("\"z\":").append(world.z[i]).append(',')
+                .append("\"angle\":").append(world.angle[i]).append(',')
+                .append("\"lastSeq\":").append(world.lastAppliedSeq[i]).append(',')
+                .append("\"boostFuel\":").append(world.boostFuel[i]).append(',');
+            if (i == slotA) {
+                sb.append("\"color\":\"blue\"");
+            } else if (i == slotB) {
+                sb.append("\"color\":\"red\"");
             } else {
-                vz -= 120.0 * dt;
-                z += vz * dt;
-                if (z < 0) { z = 0; vz = 0; }
+                sb.append("\"color\":\"gray\"");
             }
+            sb.append('}');
         }
+        sb.append(']');
+        sb.append(",\"countdownMs\":").append(countdownMs);
+        sb.append(",\"timerMs\":").append(timerMs);
+        sb.append('}');
+        return sb.toString();
     }
 
-    // simple serializable input container
-    public static class PlayerInput {
-        public final int seq;
-        public final double throttle, steer;
-        public final boolean jump, boost, brake;
-        public PlayerInput(int seq, double t, double s, boolean j, boolean b, boolean br) {
-            this.seq = seq; throttle = t; steer = s; jump = j; boost = b; brake = br;
+    // Quantize this tick's state into the codec's snapshot ring; frames are encoded per baseline in broadcast()
+    private void fillSnapshot(long countdownMs, long timerMs) {
+        SnapshotCodec.Snapshot snap = codec.begin(0, tickCounter, clockMs(), builtRosterVersion, scoreA, scoreB, countdownMs, timerMs,
+            ball.x, ball.y, ball.z, world.count);
+        for (int i = 0, n = world.count; i < n; i++) {
+            snap.put(i, world.x[i], world.y[i], world.z[i], world.angle[i], world.lastAppliedSeq[i], world.boostFuel[i]);
         }
     }
 
-    private static class Ball {
-        double x = 400, y = 300, vx = 0, vy = 0;
-        double z = 0, vz = 0;
-        void update(double dt) {
-            double speed = Math.hypot(vx, vy);
-            double minSpeed = 20.0; // units/second
-            if (speed > minSpeed) {
-                vx *= 0.985; // less friction for ball at high speeds
-                vy *= 0.985;
-            } else {
-                vx *= 0.995; // less friction for ball at low speeds
-                vy *= 0.995;
+    // Names and colours go out once per roster change instead of in every snapshot
+    private void rebuildRoster() {
+        int version = rosterVersion;
+        int n = world.count;
+        codec.beginRoster(0, version, n);
+        for (int i = 0; i < n; i++) {
+            int color = i == slotA ? SnapshotCodec.COLOR_BLUE
+                : i == slotB ? SnapshotCodec.COLOR_RED : SnapshotCodec.COLOR_GRAY;
+            codec.rosterEntry(i, color, world.name[i]);
+        }
+        rosterFrame = SessionSender.Frame.binary(codec.finish());
+        builtRosterVersion = version;
+    }
+
+    // One-off messages (gameover) that every client must receive
+    private void broadcastState(String json) {
+        SessionSender.Frame frame = SessionSender.Frame.text(json);
+        for (int i = 0, n = world.count; i < n; i++) {
+            if (clients[i] != null) sender.sendReliable(clients[i], frame);
+        }
+    }
+
+    // Hand this tick's snapshot to every session's outbox: binary clients get a keyframe or a delta against
+    // their last ack (preceded by the roster if they lack it), others share one JSON frame. Sessions that fall
+    // behind are skipped on some snapshots (SessionSender.admitState).
+    private long broadcast(String json, boolean snapshotReady) {
+        SessionSender.Frame text = json != null ? SessionSender.Frame.text(json) : null;
+        long bytes = 0;
+        long now = System.nanoTime();
+        for (int i = 0, n = world.count; i < n; i++) {
+            ClientSession cs = clients[i];
+            if (cs == null || !sender.admitState(cs)) continue;
+            if (snapshotReady && cs.isBinary()) {
+                if (!codec.hasBaseline(cs.ackTick) && !cs.needsRoster(this, builtRosterVersion)
+                        && !sender.admitKeyframe(cs, now)) continue;
+                if (cs.needsRoster(this, builtRosterVersion)) {
+                    sender.sendReliable(cs, rosterFrame);
+                    cs.rosterSent(this, builtRosterVersion);
+                    bytes += rosterFrame.size;
+                }
+                SessionSender.Frame frame = SessionSender.Frame.binary(codec.frameFor(cs.ackTick));
+                sender.sendState(cs, frame);
+                bytes += frame.size;
+            } else if (text != null) {
+                sender.sendState(cs, text);
+                bytes += text.size;
             }
-            x += vx * dt;
-            y += vy * dt;
-            // Ball jump/vertical physics
-            vz -= 150.0 * dt; // gravity 
-            z += vz * dt;
-            if (z < 0) { z = 0; vz = 0; }
         }
-        void reset() { x = 520; y = 300; vx = 0; vy = 0; z = 0; vz = 0; }
+        return bytes;
     }
+
     /**
      * Triggers a vertical jump for the ball if it is on the ground (z == 0).
      * Can be called externally (e.g., from GameHandler) to simulate a ball jump event.
+     * Applied at the start of the next tick, like other commands, so a recording can replay it at the same point.
      */
     public void triggerBallJump() {
-        if (ball != null && ball.z == 0) {
-            ball.vz = 60; // Adjust for desired jump height
-        }
+        enqueue(MatchCommands.BALL_JUMP, null, null);
     }
 }
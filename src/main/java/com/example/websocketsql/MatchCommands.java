@@ -0,0 +1,76 @@
+package com.example.websocketsql;
+
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Mutations of one Match (or of the free-play GameLoop) waiting for its tick: a lock-free multi-producer,
+ * single-consumer queue.
+ * IO, matchmaker and cleanup threads offer(); only the thread ticking the match polls, at the start of each tick,
+ * so everything a command changes is owned by that thread. Each command is its own queue node (Vyukov's
+ * intrusive queue): offering is one atomic swap and one release store, and takes no lock.
+ */
+final class MatchCommands {
+    static final int ADD_PLAYER = 1, REMOVE_PLAYER = 2, REFILL_BOOST = 3, BALL_JUMP = 4, REMOVE_ALL = 5, CLOSE = 6,
+        START_RECORDING = 7;
+
+    static final class Command {
+        final int op;
+        final String name;
+        final ClientSession client;
+        // Written once by the producer that linked this node, read by the consumer
+        volatile Command next;
+
+        Command(int op, String name, ClientSession client) {
+            this.op = op;
+            this.name = name;
+            this.client = client;
+        }
+    }
+
+    private static final VarHandle NEXT;
+
+    static {
+        try {
+            NEXT = MethodHandles.lookup().findVarHandle(Command.class, "next", Command.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Consumer only: the last command polled (or the initial stub); its successor is the next to run
+    private Command head;
+    private final AtomicReference<Command> tail;
+
+    MatchCommands() {
+        Command stub = new Command(0, null, null);
+        head = stub;
+        tail = new AtomicReference<>(stub);
+    }
+
+    void offer(int op, String name, WebSocketSession session) {
+        offer(new Command(op, name, session != null ? ClientSession.of(session) : null));
+    }
+
+    void offer(Command c) {
+        Command prev = tail.getAndSet(c);
+        // Until this store the consumer sees the queue end at prev and picks c up on a later tick
+        NEXT.setRelease(prev, c);
+    }
+
+    // Whether a command was offered that poll() has not returned yet; consumer thread only
+    boolean hasPending() {
+        return tail.get() != head;
+    }
+
+    // Next command, or null; consumer thread only
+    Command poll() {
+        Command next = (Command) NEXT.getAcquire(head);
+        if (next == null) return null;
+        head = next;
+        return next;
+    }
+}
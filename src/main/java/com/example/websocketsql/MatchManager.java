@@ -1,148 +1,234 @@
 package com.example.websocketsql;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.WebSocketSession;
 
-import java.util.Queue;
+import javax.annotation.PreDestroy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class MatchManager {
-    private final Queue<String> queue = new ConcurrentLinkedQueue<>();
-    private final ConcurrentMap<String, Match> playerMatch = new ConcurrentHashMap<>();
+    // Connections by player; a player's match is on their ClientSession
+    private final SessionRegistry sessions;
     private final ConcurrentMap<String, Match> matches = new ConcurrentHashMap<>();
-    private final ConcurrentMap<String, WebSocketSession> pendingSessions = new ConcurrentHashMap<>();
+    // Waiting players; pairs them on its own thread and hands each pair to startMatch()
+    private final Matchmaker matchmaker;
     private final GameRepository repo;
-
-    // Track last activity for each player
-    private final ConcurrentMap<String, Long> lastActive = new ConcurrentHashMap<>();
-    // Track last activity for each match
-    private final ConcurrentMap<String, Long> matchLastActive = new ConcurrentHashMap<>();
-    // Cleanup interval and timeout (ms)
-    private static final long CLEANUP_INTERVAL_MS = 60_000; // 1 min
+    private final MatchTickEngine engine;
+    private final SessionSender sender;
+    private final ReplayService replays;
+    private final MatchResults results;
+
+    // Inactivity timeouts. Activity only writes the wheel's current tick into the player's entry (and its match's);
+    // the maps below change on join, pairing and leave, never on input.
+    private final ActivityWheel activity = new ActivityWheel();
+    private final ConcurrentMap<String, ActivityWheel.Entry> playerActivity = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ActivityWheel.Entry> matchActivity = new ConcurrentHashMap<>();
+    // Wheel resolution (ms): timeouts fire at most this late
+    private static final long ACTIVITY_TICK_MS = 1000;
     // Separate timeouts for lobby and in-game inactivity
     private static final long LOBBY_TIMEOUT_MS = 2 * 60_000; // 2 min
     private static final long INGAME_TIMEOUT_MS = 2 * 60_000; // 2 min
+    private static final long LOBBY_TIMEOUT_TICKS = LOBBY_TIMEOUT_MS / ACTIVITY_TICK_MS;
+    private static final long INGAME_TIMEOUT_TICKS = INGAME_TIMEOUT_MS / ACTIVITY_TICK_MS;
+    private final long activityStartNanos = System.nanoTime();
+    private final List<ActivityWheel.Entry> expired = new ArrayList<>();
     private final java.util.concurrent.ScheduledExecutorService cleanupExecutor = java.util.concurrent.Executors.newSingleThreadScheduledExecutor();
 
     {
-        // Start periodic cleanup
-        cleanupExecutor.scheduleAtFixedRate(this::cleanupStaleSessions, CLEANUP_INTERVAL_MS, CLEANUP_INTERVAL_MS, java.util.concurrent.TimeUnit.MILLISECONDS);
+        // Turn the activity wheel
+        cleanupExecutor.scheduleAtFixedRate(this::cleanupStaleSessions, ACTIVITY_TICK_MS, ACTIVITY_TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public MatchManager(GameRepository repo, MatchTickEngine engine, SessionSender sender) {
+        this(repo, engine, sender, new SessionRegistry());
     }
 
-    public MatchManager(GameRepository repo) { this.repo = repo; }
+    public MatchManager(GameRepository repo, MatchTickEngine engine, SessionSender sender, SessionRegistry sessions) {
+        this(repo, engine, sender, sessions, null, null, new Matchmaker());
+    }
+
+    @Autowired
+    public MatchManager(GameRepository repo, MatchTickEngine engine, SessionSender sender, SessionRegistry sessions,
+                        ReplayService replays, MatchResults results, Matchmaker matchmaker) {
+        this.sessions = sessions;
+        this.repo = repo;
+        this.engine = engine;
+        this.sender = sender;
+        this.replays = replays;
+        this.results = results;
+        this.matchmaker = matchmaker;
+        matchmaker.start(this::startMatch);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cleanupExecutor.shutdownNow();
+        matchmaker.shutdown();
+    }
 
     // Remove player from match and all tracking
     public void removePlayerFromMatch(String name) {
-        Match m = playerMatch.remove(name);
+        // First, so a pairing in progress finishes before we look for the player's match
+        matchmaker.cancel(name);
+        ClientSession cs = sessions.player(name);
+        Match m = null;
+        if (cs != null) {
+            cs.transition(ClientSession.State.QUEUED, ClientSession.State.LOBBY);
+            m = cs.match;
+        }
         if (m != null) {
             m.removePlayer(name);
             System.out.println("[CLEANUP] Removed player " + name + " from match " + m.id);
             // If match is now empty, remove it
             if (m.isEmpty()) {
                 matches.remove(m.id);
-                matchLastActive.remove(m.id);
+                untrack(matchActivity.remove(m.id));
+                m.close();
                 System.out.println("[CLEANUP] Removed empty match " + m.id);
             }
         }
-        pendingSessions.remove(name);
-        lastActive.remove(name);
-        queue.remove(name);
+        untrack(playerActivity.remove(name));
     }
 
-    // Call this on player activity
+    // Call this on player activity; players that never joined are not tracked
     public void updatePlayerActivity(String name) {
-        lastActive.put(name, System.currentTimeMillis());
-        Match m = playerMatch.get(name);
-        if (m != null) matchLastActive.put(m.id, System.currentTimeMillis());
+        ActivityWheel.Entry e = playerActivity.get(name);
+        if (e != null) e.touch(activity.now());
+    }
+
+    // Current tick of the activity wheel, for touching the entry a connection carries
+    long activityTick() { return activity.now(); }
+
+    // Start tracking a player (or mark them active if already tracked); the entry is also kept on the
+    // player's connection so their messages can touch it without a lookup
+    private ActivityWheel.Entry trackPlayer(String name) {
+        ActivityWheel.Entry e = playerActivity.computeIfAbsent(name, n -> {
+            ActivityWheel.Entry created = new ActivityWheel.Entry(n, LOBBY_TIMEOUT_TICKS);
+            activity.schedule(created);
+            return created;
+        });
+        e.touch(activity.now());
+        ClientSession cs = sessions.player(name);
+        if (cs != null) cs.activity = e;
+        return e;
     }
 
-    // Cleanup stale sessions and matches
+    private void untrack(ActivityWheel.Entry e) {
+        if (e != null) activity.cancel(e);
+    }
+
+    // Turn the wheel up to the current time and remove whoever timed out
     private void cleanupStaleSessions() {
-        long now = System.currentTimeMillis();
-        // Clean up players (lobby and in-game)
-        for (String name : lastActive.keySet()) {
-            long last = lastActive.getOrDefault(name, now);
-            boolean inMatch = playerMatch.containsKey(name);
-            long timeout = inMatch ? INGAME_TIMEOUT_MS : LOBBY_TIMEOUT_MS;
-            if (now - last > timeout) {
-                System.out.println("[CLEANUP] Timeout: Removing stale " + (inMatch ? "in-game" : "lobby") + " player " + name);
-                removePlayerFromMatch(name);
-            }
-        }
-        // Clean up matches
-        for (String matchId : matchLastActive.keySet()) {
-            long last = matchLastActive.getOrDefault(matchId, now);
-            if (now - last > INGAME_TIMEOUT_MS) {
-                Match m = matches.remove(matchId);
-                matchLastActive.remove(matchId);
-                if (m != null) {
-                    System.out.println("[CLEANUP] Timeout: Removing stale match " + matchId);
-                    m.removeAllPlayers();
+        try {
+            long target = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - activityStartNanos) / ACTIVITY_TICK_MS;
+            int due = activity.advance(target, expired);
+            if (due == 0) return;
+            GameEvents.StaleCleanup event = new GameEvents.StaleCleanup();
+            event.begin();
+            event.entriesDue = due;
+            for (ActivityWheel.Entry e : expired) {
+                if (e.owner instanceof Match) {
+                    Match m = (Match) e.owner;
+                    if (!matchActivity.remove(m.id, e)) continue;
+                    if (matches.remove(m.id) != null) {
+                        System.out.println("[CLEANUP] Timeout: Removing stale match " + m.id);
+                        m.removeAllPlayers();
+                        event.matchesRemoved++;
+                    }
+                } else {
+                    String name = (String) e.owner;
+                    // A player who left and joined again has a new entry
+                    if (playerActivity.get(name) != e) continue;
+                    boolean inMatch = sessions.matchOf(name) != null;
+                    System.out.println("[CLEANUP] Timeout: Removing stale " + (inMatch ? "in-game" : "lobby") + " player " + name);
+                    removePlayerFromMatch(name);
+                    event.playersRemoved++;
                 }
             }
+            event.commit();
+        } catch (Exception ex) {
+            // Keep the scheduled task alive
+            ex.printStackTrace();
+        } finally {
+            expired.clear();
         }
     }
 
-    public synchronized void enqueue(String name, WebSocketSession session) {
-        if (playerMatch.containsKey(name)) return;
-        pendingSessions.put(name, session);
-        queue.add(name);
-
-        updatePlayerActivity(name);
+    public void enqueue(String name, WebSocketSession session) {
+        enqueue(name, session, null);
+    }
 
-        // Check for any existing single-player matches
-        String otherWaiting = null;
-        for (String queued : queue) {
-            if (!queued.equals(name)) {
-                otherWaiting = queued;
-                break;
-            }
-        }
-        if (otherWaiting != null) {
-            // Remove both from queue
-            queue.remove(name);
-            queue.remove(otherWaiting);
-            // Create or reuse a match
-            Match m = new Match(repo);
-            matches.put(m.id, m);
-            playerMatch.put(name, m);
-            playerMatch.put(otherWaiting, m);
-            WebSocketSession sa = pendingSessions.remove(name);
-            WebSocketSession sb = pendingSessions.remove(otherWaiting);
-            if (sa != null) m.addPlayer(name, sa);
-            if (sb != null) m.addPlayer(otherWaiting, sb);
-            return;
-        }
-        tryPair();
-    }
-
-    private void tryPair() {
-        if (queue.size() >= 2) {
-            String a = queue.poll();
-            String b = queue.poll();
-            Match m = new Match(repo);
-            matches.put(m.id, m);
-            playerMatch.put(a, m);
-            playerMatch.put(b, m);
-            WebSocketSession sa = pendingSessions.remove(a);
-            WebSocketSession sb = pendingSessions.remove(b);
-            if (sa != null) m.addPlayer(a, sa);
-            if (sb != null) m.addPlayer(b, sb);
+    // Queue a player for matchmaking (region null = default); the pairing happens on the matchmaker thread
+    public void enqueue(String name, WebSocketSession session, String region) {
+        ClientSession cs = sessions.player(name);
+        if (cs == null || cs.session != session) {
+            // Callers that skip the join handshake (benchmarks)
+            cs = ClientSession.of(session);
+            sessions.bind(cs, name);
         }
+        if (cs.match != null) return;
+        trackPlayer(name);
+        double rating = results != null ? results.ratingOf(name) : Leaderboard.INITIAL_RATING;
+        cs.transition(ClientSession.State.LOBBY, ClientSession.State.QUEUED);
+        matchmaker.enqueue(name, session, rating, region);
+    }
+
+    // Runs on the matchmaker thread while it holds both tickets
+    private void startMatch(Matchmaker.Ticket a, Matchmaker.Ticket b) {
+        GameEvents.MatchmakingPair event = new GameEvents.MatchmakingPair();
+        event.begin();
+        Match m = new Match(repo, engine, sender, replays, results);
+        matches.put(m.id, m);
+        ActivityWheel.Entry me = new ActivityWheel.Entry(m, INGAME_TIMEOUT_TICKS);
+        activity.schedule(me);
+        matchActivity.put(m.id, me);
+        inMatch(a.name, me);
+        inMatch(b.name, me);
+        WebSocketSession sa = a.session, sb = b.session;
+        if (sa != null) m.addPlayer(a.name, sa);
+        if (sb != null) m.addPlayer(b.name, sb);
+        commitPair(event, m, a.name, b.name);
+    }
+
+    // From now on the player's activity also keeps the match alive
+    private void inMatch(String name, ActivityWheel.Entry match) {
+        ActivityWheel.Entry e = trackPlayer(name);
+        e.timeoutTicks = INGAME_TIMEOUT_TICKS;
+        e.linked = match;
     }
 
-    public Match getMatchFor(String name) { return playerMatch.get(name); }
+    private void commitPair(GameEvents.MatchmakingPair event, Match m, String a, String b) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.matchId = m.id;
+        event.playerA = a;
+        event.playerB = b;
+        event.queueLength = matchmaker.getWaiting();
+        event.commit();
+    }
+
+    public Match getMatchFor(String name) { return sessions.matchOf(name); }
+
+    // Queue length, pairing rate, queue time and batch duration
+    public Map<String, Object> getMatchmakingStats() { return matchmaker.summary(); }
+
+    public void resetMatchmakingStats() { matchmaker.resetMetrics(); }
 
     // For cleanup: check if match is empty
     // (Add this method to Match class if not present)
 
     public void assignSessionToMatch(String name, WebSocketSession session) {
-        Match m = playerMatch.get(name);
+        Match m = sessions.matchOf(name);
         if (m != null) m.addPlayer(name, session);
-        updatePlayerActivity(name);
+        trackPlayer(name);
     }
 
 }
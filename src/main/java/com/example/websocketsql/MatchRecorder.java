@@ -0,0 +1,384 @@
+package com.example.websocketsql;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append-only input log of one match, written through a memory-mapped file.
+ * Instead of snapshots the log keeps what drives the simulation: spawns and leaves, the inputs that
+ * changed each tick, ball jumps and boost refills, plus a full keyframe when the round starts. MatchReplay
+ * re-runs PhysicsWorld from it; goals, gameover and periodic state checksums are recorded too so a replay
+ * can tell where it drifted from the live match.
+ * The file is mapped in CHUNK-sized pieces. The recorder is opened with the first chunk mapped and its pages
+ * touched, and once half a chunk is written the next one is mapped and touched on the I/O executor, so
+ * recording on the tick thread is plain memory stores: no system calls and no allocation (a chunk that is
+ * not ready in time is mapped inline). A live match keeps at most two chunks of dirty pages, however large
+ * game.replay.max-bytes is. Once max-bytes is reached the log is marked truncated and recording stops.
+ * The recorder is only called from the match's tick thread, so ops are in the order they were applied.
+ *
+ * Layout (big endian): header, then ops of one byte followed by their operands. The unused tail of the
+ * file is zero, which reads as OP_END, so a log cut short by a crash still replays up to its last op.
+ */
+final class MatchRecorder {
+    static final int MAGIC = 0x504B5250; // "PKRP"
+    static final int VERSION = 1;
+    // Header: magic i32, version u16, flags u8, start ms i64, dt f64, match id (UTF)
+    static final int FLAGS_OFFSET = 6;
+    static final int FLAG_FINISHED = 1, FLAG_TRUNCATED = 2;
+
+    static final byte OP_END = 0;
+    static final byte OP_SPAWN = 1;        // slot u16, side u8, x f64, y f64, angle f64, name UTF
+    static final byte OP_REMOVE = 2;       // slot u16 (the last car moves into it, as in PhysicsWorld.removeCar)
+    static final byte OP_KEYFRAME = 3;     // count u16, ball 6 x f64, per car 10 x f64 + 2 x i32 + flags u8
+    static final byte OP_TICK = 4;         // tick i32, timer ms i32; followed by the tick's OP_INPUTs
+    static final byte OP_INPUT = 5;        // slot u16, mask u8, [seq i32] [throttle f64] [steer f64]
+    static final byte OP_BALL_JUMP = 6;
+    static final byte OP_BOOST_REFILL = 7; // slot u16
+    static final byte OP_GOAL = 8;         // side u8, scoreA i32, scoreB i32
+    static final byte OP_CHECKSUM = 9;     // tick i32, checksum i64
+    static final byte OP_GAMEOVER = 10;    // scoreA i32, scoreB i32, winner UTF (empty = none)
+
+    // OP_INPUT mask: the buttons always, the other fields only when they changed
+    static final int IN_JUMP = 1, IN_BOOST = 2, IN_BRAKE = 4, IN_LATCH = 8, IN_SEQ = 16, IN_THROTTLE = 32, IN_STEER = 64;
+    // OP_KEYFRAME per-car flags
+    static final int CAR_PENDING_JUMP = 1, CAR_BOOST_LOCKED = 2, CAR_ACTIVE = 4,
+        CAR_IN_JUMP = 8, CAR_IN_BOOST = 16, CAR_IN_BRAKE = 32;
+    static final int SIDE_NONE = 0, SIDE_A = 1, SIDE_B = 2;
+    // Ticks between state checksums
+    static final int CHECKSUM_INTERVAL = 30;
+
+    private static final int PAGE = 4096;
+    static final int CHUNK = 256 * 1024;
+
+    // A mapped piece of the file starting at base
+    private static final class Chunk {
+        final long base;
+        final MappedByteBuffer buf;
+
+        Chunk(long base, MappedByteBuffer buf) {
+            this.base = base;
+            this.buf = buf;
+        }
+    }
+
+    // The chunk after the one being written, mapped on the I/O executor. Whoever leaves PENDING first owns it:
+    // the executor (MAPPING, then READY) or the tick, which maps it itself if it gets there first (CANCELLED),
+    // so pages are never touched while the tick writes them.
+    private static final class Ahead {
+        static final int PENDING = 0, MAPPING = 1, READY = 2, CANCELLED = 3;
+        final long base;
+        final AtomicInteger state = new AtomicInteger(PENDING);
+        // Set before READY; null if mapping failed
+        MappedByteBuffer buf;
+
+        Ahead(long base) {
+            this.base = base;
+        }
+    }
+
+    final String matchId;
+    final Path path;
+    private final FileChannel channel;
+    private final int maxBytes;
+    private final Executor io;
+    // Chunks in file order; the first holds the header flags, the last is being written
+    private final List<Chunk> chunks = new ArrayList<>();
+    private MappedByteBuffer buf;
+    private long bufBase;
+    // The chunk after buf, requested from the I/O executor once half of buf is written
+    private Ahead ahead;
+    // The op being written; copied to the mapping by commit(), so an op may span two chunks
+    private ByteBuffer op = ByteBuffer.allocate(512);
+    private int length;
+    private boolean truncated;
+    private boolean finished;
+    private int ticks;
+
+    // Creates the file and maps its first chunk; does file I/O, so call it off the tick thread.
+    // Later chunks are mapped on io.
+    MatchRecorder(Path path, String matchId, double dt, int maxBytes, Executor io) throws IOException {
+        this.path = path;
+        this.matchId = matchId;
+        this.maxBytes = maxBytes;
+        this.io = io;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        try {
+            buf = map(0);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+        chunks.add(new Chunk(0, buf));
+        op.clear();
+        op.putInt(MAGIC);
+        op.putShort((short) VERSION);
+        op.put((byte) 0);
+        op.putLong(System.currentTimeMillis());
+        op.putDouble(dt);
+        putUtf(matchId.getBytes(StandardCharsets.UTF_8));
+        commit();
+    }
+
+    // Maps the chunk at base and faults its pages in
+    private MappedByteBuffer map(long base) throws IOException {
+        int size = (int) Math.min(CHUNK, maxBytes - base);
+        MappedByteBuffer m = channel.map(FileChannel.MapMode.READ_WRITE, base, size);
+        for (int i = 0; i < size; i += PAGE) m.put(i, (byte) 0);
+        return m;
+    }
+
+    // Bytes written so far, header included
+    int length() { return length; }
+
+    boolean isTruncated() { return truncated; }
+
+    void spawn(int slot, int side, String name, double x, double y, double angle) {
+        byte[] utf = name.getBytes(StandardCharsets.UTF_8);
+        if (!reserve(1 + 2 + 1 + 24 + 2 + utf.length)) return;
+        op.put(OP_SPAWN);
+        op.putShort((short) slot);
+        op.put((byte) side);
+        op.putDouble(x); op.putDouble(y); op.putDouble(angle);
+        putUtf(utf);
+        commit();
+    }
+
+    void remove(int slot) {
+        if (!reserve(3)) return;
+        op.put(OP_REMOVE);
+        op.putShort((short) slot);
+        commit();
+    }
+
+    // Full world state; written when a round starts so the countdown needs no recording
+    void keyframe(PhysicsWorld w) {
+        int n = w.count;
+        if (!reserve(1 + 2 + 48 + n * (80 + 8 + 1))) return;
+        PhysicsWorld.Ball b = w.ball;
+        op.put(OP_KEYFRAME);
+        op.putShort((short) n);
+        op.putDouble(b.x); op.putDouble(b.y); op.putDouble(b.vx);
+        op.putDouble(b.vy); op.putDouble(b.z); op.putDouble(b.vz);
+        for (int i = 0; i < n; i++) {
+            op.putDouble(w.x[i]); op.putDouble(w.y[i]);
+            op.putDouble(w.vx[i]); op.putDouble(w.vy[i]);
+            op.putDouble(w.angle[i]);
+            op.putDouble(w.z[i]); op.putDouble(w.vz[i]);
+            op.putDouble(w.boostFuel[i]);
+            op.putDouble(w.inThrottle[i]); op.putDouble(w.inSteer[i]);
+            op.putInt(w.lastAppliedSeq[i]);
+            op.putInt(w.inSeq[i]);
+            int flags = (w.pendingJump[i] ? CAR_PENDING_JUMP : 0) | (w.boostLocked[i] ? CAR_BOOST_LOCKED : 0)
+                | (w.active[i] ? CAR_ACTIVE : 0) | (w.inJump[i] ? CAR_IN_JUMP : 0)
+                | (w.inBoost[i] ? CAR_IN_BOOST : 0) | (w.inBrake[i] ? CAR_IN_BRAKE : 0);
+            op.put((byte) flags);
+        }
+        commit();
+    }
+
+    // Start of a simulated tick; the inputs the tick applies follow
+    void tick(int tick, long timerMs) {
+        if (!reserve(9)) return;
+        op.put(OP_TICK);
+        op.putInt(tick);
+        op.putInt((int) Math.min(Integer.MAX_VALUE, timerMs));
+        ticks++;
+        commit();
+    }
+
+    // Input about to be applied to slot i; written only if it differs from the slot's previous input.
+    // Call before PhysicsWorld.setInput() so the world still holds the previous values.
+    void input(PhysicsWorld w, int i, InputSlot in, boolean latched) {
+        int mask = (in.jump ? IN_JUMP : 0) | (in.boost ? IN_BOOST : 0) | (in.brake ? IN_BRAKE : 0) | (latched ? IN_LATCH : 0);
+        int prevButtons = (w.inJump[i] ? IN_JUMP : 0) | (w.inBoost[i] ? IN_BOOST : 0) | (w.inBrake[i] ? IN_BRAKE : 0);
+        if (in.seq != w.inSeq[i]) mask |= IN_SEQ;
+        if (Double.doubleToRawLongBits(in.throttle) != Double.doubleToRawLongBits(w.inThrottle[i])) mask |= IN_THROTTLE;
+        if (Double.doubleToRawLongBits(in.steer) != Double.doubleToRawLongBits(w.inSteer[i])) mask |= IN_STEER;
+        if (mask == prevButtons) return;
+        if (!reserve(1 + 2 + 1 + 4 + 16)) return;
+        op.put(OP_INPUT);
+        op.putShort((short) i);
+        op.put((byte) mask);
+        if ((mask & IN_SEQ) != 0) op.putInt(in.seq);
+        if ((mask & IN_THROTTLE) != 0) op.putDouble(in.throttle);
+        if ((mask & IN_STEER) != 0) op.putDouble(in.steer);
+        commit();
+    }
+
+    // End of a simulated tick: every CHECKSUM_INTERVAL ticks, a checksum of the state it produced
+    void endTick(PhysicsWorld w, int tick) {
+        if (ticks % CHECKSUM_INTERVAL != 0 || !reserve(13)) return;
+        op.put(OP_CHECKSUM);
+        op.putInt(tick);
+        op.putLong(checksum(w));
+        commit();
+    }
+
+    void ballJump() {
+        if (!reserve(1)) return;
+        op.put(OP_BALL_JUMP);
+        commit();
+    }
+
+    void boostRefill(int slot) {
+        if (!reserve(3)) return;
+        op.put(OP_BOOST_REFILL);
+        op.putShort((short) slot);
+        commit();
+    }
+
+    void goal(int side, int scoreA, int scoreB) {
+        if (!reserve(10)) return;
+        op.put(OP_GOAL);
+        op.put((byte) side);
+        op.putInt(scoreA);
+        op.putInt(scoreB);
+        commit();
+    }
+
+    void gameOver(int scoreA, int scoreB, String winner) {
+        byte[] utf = winner != null ? winner.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (!reserve(1 + 8 + 2 + utf.length)) return;
+        op.put(OP_GAMEOVER);
+        op.putInt(scoreA);
+        op.putInt(scoreB);
+        putUtf(utf);
+        commit();
+    }
+
+    // Marks the log complete; returns false if it already was. The service trims the file afterwards.
+    boolean finish() {
+        if (finished) return false;
+        finished = true;
+        chunks.get(0).buf.put(FLAGS_OFFSET, (byte) (FLAG_FINISHED | (truncated ? FLAG_TRUNCATED : 0)));
+        return true;
+    }
+
+    // Flushes the log, cuts the file to its length and closes it; run by the replay service after finish()
+    void close() throws IOException {
+        try {
+            for (Chunk c : chunks) c.buf.force();
+            channel.truncate(length);
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Closes the file without keeping it; the caller deletes it
+    void abandon() throws IOException {
+        channel.close();
+    }
+
+    // Bit-exact fingerprint of the simulated state; a replay that computes a different value has diverged
+    static long checksum(PhysicsWorld w) {
+        PhysicsWorld.Ball b = w.ball;
+        long h = 1125899906842597L;
+        h = mix(h, b.x); h = mix(h, b.y); h = mix(h, b.z);
+        h = mix(h, b.vx); h = mix(h, b.vy); h = mix(h, b.vz);
+        for (int i = 0, n = w.count; i < n; i++) {
+            h = mix(h, w.x[i]); h = mix(h, w.y[i]); h = mix(h, w.z[i]);
+            h = mix(h, w.vx[i]); h = mix(h, w.vy[i]); h = mix(h, w.vz[i]);
+            h = mix(h, w.angle[i]); h = mix(h, w.boostFuel[i]);
+        }
+        return h;
+    }
+
+    private static long mix(long h, double v) {
+        return 31 * h + Double.doubleToLongBits(v);
+    }
+
+    // True if an op of at most n bytes fits, keeping one zero byte as the end marker, and starts it;
+    // otherwise stops recording
+    private boolean reserve(int n) {
+        if (finished || truncated) return false;
+        if (maxBytes - length > n) {
+            if (op.capacity() < n) op = ByteBuffer.allocate(Math.max(n, 2 * op.capacity()));
+            op.clear();
+            return true;
+        }
+        stop("full at " + length + " bytes");
+        return false;
+    }
+
+    private void stop(String why) {
+        truncated = true;
+        chunks.get(0).buf.put(FLAGS_OFFSET, (byte) FLAG_TRUNCATED);
+        System.out.println("[REPLAY] Recording of match " + matchId + " is " + why + "; stopped");
+    }
+
+    // Appends the op to the mapping, moving on to the next chunk where it does not fit
+    private void commit() {
+        op.flip();
+        int n = op.remaining();
+        if (n > buf.remaining()) {
+            MappedByteBuffer next = nextChunk();
+            if (next == null) return;
+            int limit = op.limit();
+            op.limit(op.position() + buf.remaining());
+            buf.put(op);
+            op.limit(limit);
+            bufBase += buf.capacity();
+            buf = next;
+            chunks.add(new Chunk(bufBase, buf));
+        }
+        buf.put(op);
+        length += n;
+        if (ahead == null && buf.position() >= buf.capacity() / 2) mapAhead();
+    }
+
+    // The chunk after buf: the one mapped ahead if it is ready, else mapped here. Null (and recording stops)
+    // if it cannot be mapped.
+    private MappedByteBuffer nextChunk() {
+        long base = bufBase + buf.capacity();
+        Ahead a = ahead;
+        ahead = null;
+        if (a != null && !a.state.compareAndSet(Ahead.PENDING, Ahead.CANCELLED)) {
+            // Being mapped right now; it is one chunk of page touches
+            while (a.state.get() != Ahead.READY) Thread.yield();
+            if (a.buf != null) return a.buf;
+        }
+        try {
+            return map(base);
+        } catch (IOException | RuntimeException ex) {
+            stop("not writable (" + ex.getMessage() + ")");
+            return null;
+        }
+    }
+
+    private void mapAhead() {
+        long base = bufBase + buf.capacity();
+        if (base >= maxBytes) return;
+        Ahead a = new Ahead(base);
+        ahead = a;
+        try {
+            io.execute(() -> {
+                if (!a.state.compareAndSet(Ahead.PENDING, Ahead.MAPPING)) return;
+                try {
+                    a.buf = map(base);
+                } catch (IOException | RuntimeException ex) {
+                    // The tick maps it when it gets there, or stops recording
+                } finally {
+                    a.state.set(Ahead.READY);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // Shutting down; the tick maps it when it gets there
+        }
+    }
+
+    private void putUtf(byte[] utf) {
+        op.putShort((short) utf.length);
+        op.put(utf);
+    }
+}
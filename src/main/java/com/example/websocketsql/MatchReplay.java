@@ -0,0 +1,281 @@
+package com.example.websocketsql;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Re-simulates a match from a MatchRecorder log.
+ * The log is mapped read-only and consumed op by op; each step() runs one recorded tick through a fresh
+ * PhysicsWorld with the same phase order and goal rules as Match, so the replay reproduces the live match
+ * bit for bit. Recorded checksums and goals are compared with the re-simulated ones as they come by;
+ * a mismatch means the physics has changed since the recording, or the live match did something the
+ * log does not capture.
+ * Not thread-safe: one replay is driven by one thread at a time.
+ */
+final class MatchReplay {
+    final String matchId;
+    final long startedAt;
+    final boolean finished, truncated;
+    final int bytes;
+    // Seconds per tick the match was played at; the replay steps the same
+    final double dt;
+    private final PhysicsWorld.Step step;
+    final PhysicsWorld world = new PhysicsWorld(2);
+
+    private final ByteBuffer buf;
+    private final PhysicsWorld.GoalListener goalListener = this::onGoal;
+    private int slotA = -1, slotB = -1;
+    private boolean hasA, hasB;
+    private boolean inTick, ended;
+
+    int tick;
+    long timerMs;
+    int ticks;
+    int scoreA, scoreB;
+    // From OP_GAMEOVER, if the log has one
+    boolean gameOver;
+    int finalScoreA, finalScoreB;
+    String winner;
+    // Desync detection
+    int checksums, checksumMismatches, goalMismatches;
+    int firstMismatchTick = -1;
+
+    private MatchReplay(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.remaining() < 21 || buf.getInt() != MatchRecorder.MAGIC) throw new IOException("not a match recording");
+        int version = buf.getShort();
+        if (version != MatchRecorder.VERSION) throw new IOException("unsupported recording version " + version);
+        int flags = buf.get();
+        finished = (flags & MatchRecorder.FLAG_FINISHED) != 0;
+        truncated = (flags & MatchRecorder.FLAG_TRUNCATED) != 0;
+        startedAt = buf.getLong();
+        dt = buf.getDouble();
+        if (!(dt > 0 && dt < 1)) throw new IOException("recorded with a tick of " + dt + " s");
+        step = new PhysicsWorld.Step(dt);
+        matchId = getUtf();
+        bytes = buf.limit();
+    }
+
+    static MatchReplay open(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new MatchReplay(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    boolean isEnded() { return ended; }
+
+    // Runs ops until the next recorded tick has been simulated; false once the log has no more ticks
+    boolean step() {
+        while (true) {
+            if (!buf.hasRemaining()) {
+                ended = true;
+                return finishTick();
+            }
+            int pos = buf.position();
+            byte op = buf.get();
+            // A tick's inputs and goals belong to it; anything else comes after it
+            if (op == MatchRecorder.OP_INPUT) { readInput(); continue; }
+            if (op == MatchRecorder.OP_GOAL) { readGoal(); continue; }
+            if (inTick) {
+                buf.position(pos);
+                return finishTick();
+            }
+            switch (op) {
+                case MatchRecorder.OP_END:
+                    ended = true;
+                    return false;
+                case MatchRecorder.OP_TICK:
+                    beginTick();
+                    break;
+                case MatchRecorder.OP_SPAWN:
+                    readSpawn();
+                    break;
+                case MatchRecorder.OP_REMOVE:
+                    removeCar(buf.getShort());
+                    break;
+                case MatchRecorder.OP_KEYFRAME:
+                    readKeyframe();
+                    break;
+                case MatchRecorder.OP_BALL_JUMP:
+                    world.ball.jump();
+                    break;
+                case MatchRecorder.OP_BOOST_REFILL:
+                    world.boostFuel[buf.getShort()] = 100.0;
+                    break;
+                case MatchRecorder.OP_CHECKSUM:
+                    readChecksum();
+                    break;
+                case MatchRecorder.OP_GAMEOVER:
+                    gameOver = true;
+                    finalScoreA = buf.getInt();
+                    finalScoreB = buf.getInt();
+                    String w = getUtf();
+                    winner = w.isEmpty() ? null : w;
+                    break;
+                default:
+                    throw new IllegalStateException("unknown op " + op + " at byte " + pos);
+            }
+        }
+    }
+
+    // Same phase order as Match: car-car contacts and the ball first, then the tick's inputs are read
+    private void beginTick() {
+        tick = buf.getInt();
+        timerMs = buf.getInt();
+        world.collideCars();
+        world.stepBall(step, goalListener);
+        inTick = true;
+    }
+
+    private boolean finishTick() {
+        if (!inTick) return false;
+        world.stepCars(step);
+        world.collideBall();
+        inTick = false;
+        ticks++;
+        return true;
+    }
+
+    private void readInput() {
+        int i = buf.getShort();
+        int mask = buf.get();
+        if ((mask & MatchRecorder.IN_SEQ) != 0) world.inSeq[i] = buf.getInt();
+        if ((mask & MatchRecorder.IN_THROTTLE) != 0) world.inThrottle[i] = buf.getDouble();
+        if ((mask & MatchRecorder.IN_STEER) != 0) world.inSteer[i] = buf.getDouble();
+        world.inJump[i] = (mask & MatchRecorder.IN_JUMP) != 0;
+        world.inBoost[i] = (mask & MatchRecorder.IN_BOOST) != 0;
+        world.inBrake[i] = (mask & MatchRecorder.IN_BRAKE) != 0;
+        if ((mask & MatchRecorder.IN_LATCH) != 0) world.pendingJump[i] = true;
+    }
+
+    private void readSpawn() {
+        int slot = buf.getShort();
+        int side = buf.get();
+        double x = buf.getDouble(), y = buf.getDouble(), angle = buf.getDouble();
+        String name = getUtf();
+        int added = world.addCar(name, x, y, angle);
+        if (added != slot) throw new IllegalStateException("spawn of " + name + " in slot " + added + ", recorded " + slot);
+        if (side == MatchRecorder.SIDE_A) { slotA = slot; hasA = true; }
+        if (side == MatchRecorder.SIDE_B) { slotB = slot; hasB = true; }
+    }
+
+    // Same bookkeeping as Match.removeCar()
+    private void removeCar(int slot) {
+        if (slot == slotA) slotA = -1;
+        if (slot == slotB) slotB = -1;
+        int moved = world.removeCar(slot);
+        if (moved >= 0) {
+            if (slotA == moved) slotA = slot;
+            if (slotB == moved) slotB = slot;
+        }
+    }
+
+    private void readKeyframe() {
+        int n = buf.getShort();
+        if (n != world.count) throw new IllegalStateException("keyframe has " + n + " cars, replay has " + world.count);
+        PhysicsWorld.Ball b = world.ball;
+        b.x = buf.getDouble(); b.y = buf.getDouble(); b.vx = buf.getDouble();
+        b.vy = buf.getDouble(); b.z = buf.getDouble(); b.vz = buf.getDouble();
+        for (int i = 0; i < n; i++) {
+            world.x[i] = buf.getDouble(); world.y[i] = buf.getDouble();
+            world.vx[i] = buf.getDouble(); world.vy[i] = buf.getDouble();
+            world.angle[i] = buf.getDouble();
+            world.z[i] = buf.getDouble(); world.vz[i] = buf.getDouble();
+            world.boostFuel[i] = buf.getDouble();
+            world.inThrottle[i] = buf.getDouble(); world.inSteer[i] = buf.getDouble();
+            world.lastAppliedSeq[i] = buf.getInt();
+            world.inSeq[i] = buf.getInt();
+            int flags = buf.get();
+            world.pendingJump[i] = (flags & MatchRecorder.CAR_PENDING_JUMP) != 0;
+            world.boostLocked[i] = (flags & MatchRecorder.CAR_BOOST_LOCKED) != 0;
+            world.active[i] = (flags & MatchRecorder.CAR_ACTIVE) != 0;
+            world.inJump[i] = (flags & MatchRecorder.CAR_IN_JUMP) != 0;
+            world.inBoost[i] = (flags & MatchRecorder.CAR_IN_BOOST) != 0;
+            world.inBrake[i] = (flags & MatchRecorder.CAR_IN_BRAKE) != 0;
+        }
+    }
+
+    private void readChecksum() {
+        int at = buf.getInt();
+        long recorded = buf.getLong();
+        checksums++;
+        if (recorded != MatchRecorder.checksum(world)) {
+            if (checksumMismatches++ == 0) firstMismatchTick = at;
+        }
+    }
+
+    private void readGoal() {
+        buf.get(); // side; onGoal() already scored it when the ball crossed the line
+        int a = buf.getInt(), b = buf.getInt();
+        if (a != scoreA || b != scoreB) goalMismatches++;
+    }
+
+    // Match.onGoal() without the networking
+    private void onGoal(int side) {
+        if (side == PhysicsWorld.GOAL_LEFT) {
+            if (hasB) scoreB++;
+        } else if (hasA) {
+            scoreA++;
+        }
+        world.ball.reset();
+        if (slotA >= 0) world.respawn(slotA, 180, 300, 0);
+        if (slotB >= 0) world.respawn(slotB, 860, 400, Math.PI);
+    }
+
+    private String getUtf() {
+        byte[] utf = new byte[buf.getShort() & 0xFFFF];
+        buf.get(utf);
+        return new String(utf, StandardCharsets.UTF_8);
+    }
+
+    // Lets the web client treat the replay as the match it is watching
+    String matchedJson() {
+        return "{\"type\":\"matched\",\"match\":\"" + matchId + "\",\"playerA\":" + quoted(slotA) + ",\"playerB\":" + quoted(slotB) + "}";
+    }
+
+    // Same shape as Match's JSON state message; serverMs is the stream's own clock
+    String stateJson(long serverMs) {
+        PhysicsWorld.Ball ball = world.ball;
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        sb.append("\"type\":\"state\",");
+        sb.append("\"match\":\"").append(matchId).append("\",");
+        sb.append("\"tick\":").append(tick).append(',');
+        sb.append("\"serverMs\":").append(serverMs).append(',');
+        sb.append("\"scoreA\":").append(scoreA).append(",\"scoreB\":").append(scoreB).append(',');
+        sb.append("\"ball\":{").append("\"x\":").append(ball.x).append(",\"y\":").append(ball.y).append(",\"z\":").append(ball.z).append("},");
+        sb.append("\"players\":[");
+        for (int i = 0, n = world.count; i < n; i++) {
+            if (i > 0) sb.append(',');
+            sb.append('{')
+                .append("\"name\":\"").append(world.name[i]).append("\",")
+                .append("\"x\":").append(world.x[i]).append(',')
+                .append("\"y\":").append(world.y[i]).append(',')
+                .append("\"z\":").append(world.z[i]).append(',')
+                .append("\"angle\":").append(world.angle[i]).append(',')
+                .append("\"lastSeq\":").append(world.lastAppliedSeq[i]).append(',')
+                .append("\"boostFuel\":").append(world.boostFuel[i]).append(',')
+                .append("\"color\":\"").append(i == slotA ? "blue" : i == slotB ? "red" : "gray").append('"');
+            sb.append('}');
+        }
+        sb.append(']');
+        sb.append(",\"countdownMs\":0");
+        sb.append(",\"timerMs\":").append(timerMs);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    String gameOverJson() {
+        int a = gameOver ? finalScoreA : scoreA, b = gameOver ? finalScoreB : scoreB;
+        return "{\"type\":\"gameover\",\"match\":\"" + matchId + "\",\"scoreA\":" + a + ",\"scoreB\":" + b
+            + ",\"winner\":" + (winner != null ? "\"" + winner + "\"" : "null") + "}";
+    }
+
+    private String quoted(int slot) {
+        return slot >= 0 ? "\"" + world.name[slot] + "\"" : "null";
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.websocketsql;
+
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+
+// Outcome of a finished match. Players are stored by name; userA/userB link the ones with an account.
+@Entity
+@Table(name = "match_results", indexes = @Index(columnList = "matchId"))
+public class MatchResult {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    private String matchId;
+    private String playerA;
+    private String playerB;
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_a")
+    private User userA;
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_b")
+    private User userB;
+    private int scoreA;
+    private int scoreB;
+    // null for a draw
+    private String winner;
+    // timer | overtime | forfeit
+    private String reason;
+    // Ratings after this match
+    private double ratingA;
+    private double ratingB;
+    private long endedAt;
+
+    public MatchResult() {}
+    public MatchResult(String matchId, String playerA, String playerB, int scoreA, int scoreB, String winner, String reason, long endedAt) {
+        this.matchId = matchId;
+        this.playerA = playerA;
+        this.playerB = playerB;
+        this.scoreA = scoreA;
+        this.scoreB = scoreB;
+        this.winner = winner;
+        this.reason = reason;
+        this.endedAt = endedAt;
+    }
+    public Long getId() { return id; }
+    public String getMatchId() { return matchId; }
+    public String getPlayerA() { return playerA; }
+    public String getPlayerB() { return playerB; }
+    public User getUserA() { return userA; }
+    public void setUserA(User userA) { this.userA = userA; }
+    public User getUserB() { return userB; }
+    public void setUserB(User userB) { this.userB = userB; }
+    public int getScoreA() { return scoreA; }
+    public int getScoreB() { return scoreB; }
+    public String getWinner() { return winner; }
+    public String getReason() { return reason; }
+    public double getRatingA() { return ratingA; }
+    public void setRatingA(double ratingA) { this.ratingA = ratingA; }
+    public double getRatingB() { return ratingB; }
+    public void setRatingB(double ratingB) { this.ratingB = ratingB; }
+    public long getEndedAt() { return endedAt; }
+}
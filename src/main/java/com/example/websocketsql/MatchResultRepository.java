@@ -0,0 +1,6 @@
+package com.example.websocketsql;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface MatchResultRepository extends JpaRepository<MatchResult, Long> {
+}
@@ -0,0 +1,154 @@
+package com.example.websocketsql;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finished matches: rated into the in-memory Leaderboard and written behind to match_results.
+ * Matches call submit() from their tick or IO thread; it only queues the result. A single writer thread
+ * scores queued results (so ratings change in gameover order) and saves them in batches of up to
+ * game.results.batch-size. The leaderboard is rebuilt from the table at startup and is never read from the
+ * database afterwards.
+ */
+@Component
+public class MatchResults {
+    // How long the idle writer waits for a result before checking for shutdown
+    private static final long IDLE_POLL_MS = 200;
+
+    private final MatchResultRepository results;
+    private final UserRepository users;
+    private final BlockingQueue<MatchResult> queue;
+    private final int batchSize;
+    private final Leaderboard leaderboard = new Leaderboard();
+
+    private final AtomicLong saved = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private volatile boolean running = false;
+    private Thread writer;
+
+    public MatchResults(MatchResultRepository results, UserRepository users,
+                        @Value("${game.results.capacity:10000}") int capacity,
+                        @Value("${game.results.batch-size:100}") int batchSize) {
+        this.results = results;
+        this.users = users;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @PostConstruct
+    public void start() {
+        int n = 0;
+        for (MatchResult r : results.findAll(Sort.by("id"))) {
+            leaderboard.restore(r.getPlayerA(), r.getPlayerB(), r.getWinner(), r.getRatingA(), r.getRatingB());
+            n++;
+        }
+        if (n > 0) System.out.println("[DB] Leaderboard rebuilt from " + n + " match results");
+        running = true;
+        writer = new Thread(this::runWriter, "result-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Stop the writer after it has saved what is still queued
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        Thread w = writer;
+        if (w == null) return;
+        try {
+            w.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Queues a finished match (winner null = draw); never blocks
+    public void submit(String matchId, String playerA, String playerB, int scoreA, int scoreB, String winner, String reason) {
+        MatchResult r = new MatchResult(matchId, playerA, playerB, scoreA, scoreB, winner, reason, System.currentTimeMillis());
+        if (!queue.offer(r)) {
+            dropped.incrementAndGet();
+            System.out.println("[DB] Result queue full, dropping result of match " + matchId);
+        }
+    }
+
+    // Ranked entries from..from+limit-1 (1-based)
+    public List<Map<String, Object>> top(int from, int limit) { return leaderboard.top(from, limit); }
+
+    // A player's entry with rank, or null if the player has not finished a match
+    public Map<String, Object> find(String name) { return leaderboard.find(name); }
+
+    public double ratingOf(String name) { return leaderboard.rating(name); }
+
+    public int getRankedPlayers() { return leaderboard.size(); }
+    public int getQueueSize() { return queue.size(); }
+    public long getSaved() { return saved.get(); }
+    public long getDropped() { return dropped.get(); }
+    public long getFailedBatches() { return failedBatches.get(); }
+
+    private void runWriter() {
+        List<MatchResult> batch = new ArrayList<>(batchSize);
+        while (true) {
+            boolean stopping = !running;
+            MatchResult first;
+            try {
+                first = stopping ? queue.poll() : queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (first == null) {
+                if (stopping) break;
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, batchSize - 1);
+            for (MatchResult r : batch) {
+                double[] ratings = leaderboard.apply(r.getPlayerA(), r.getPlayerB(), r.getWinner());
+                r.setRatingA(ratings[0]);
+                r.setRatingB(ratings[1]);
+            }
+            save(batch);
+        }
+    }
+
+    private void save(List<MatchResult> batch) {
+        int n = batch.size();
+        try {
+            // Link the results of registered players to their accounts
+            Set<String> names = new HashSet<>();
+            for (MatchResult r : batch) {
+                names.add(r.getPlayerA());
+                names.add(r.getPlayerB());
+            }
+            Map<String, User> accounts = new HashMap<>();
+            for (User u : users.findAllById(names)) accounts.put(u.getUsername(), u);
+            for (MatchResult r : batch) {
+                r.setUserA(accounts.get(r.getPlayerA()));
+                r.setUserB(accounts.get(r.getPlayerB()));
+            }
+            results.saveAll(batch);
+            saved.addAndGet(n);
+        } catch (Exception ex) {
+            // The ratings already count these results; only the stored history is missing them
+            failedBatches.incrementAndGet();
+            dropped.addAndGet(n);
+            System.out.println("[DB] Result batch of " + n + " failed: " + ex.getMessage());
+        } finally {
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.websocketsql;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared tick engine for all running matches.
+ * A fixed number of shards (one per core) each own a single tick thread, a FixedStepLoop that runs one pass
+ * over the shard's matches per physics step; sending is left to SessionSender so a slow socket never holds
+ * up a tick. Matches are assigned to the least loaded shard when they start, moved to another shard when
+ * their shard falls behind, and released as soon as they end.
+ */
+@Component
+public class MatchTickEngine {
+    static final int DEFAULT_MAX_CATCH_UP = 5;
+    static final long DEFAULT_SPIN_MICROS = 100;
+    // A shard is considered behind once a full pass uses this much of the tick budget
+    private static final double REBALANCE_THRESHOLD = 0.75;
+    // Assumed cost of a match that has not been measured yet
+    private static final long NEW_MATCH_COST_NANOS = 20_000;
+
+    private final Shard[] shards;
+    // Step and snapshot rates of every match on this engine
+    final TickRates rates;
+    private final int maxCatchUp;
+    private final long spinNanos;
+
+    public MatchTickEngine() {
+        this(Runtime.getRuntime().availableProcessors(), TickRates.DEFAULT, DEFAULT_MAX_CATCH_UP, DEFAULT_SPIN_MICROS);
+    }
+
+    @Autowired
+    public MatchTickEngine(TickRates rates,
+                           @Value("${game.tick.max-catch-up:5}") int maxCatchUp,
+                           @Value("${game.tick.spin-us:100}") long spinMicros) {
+        this(Runtime.getRuntime().availableProcessors(), rates, maxCatchUp, spinMicros);
+    }
+
+    MatchTickEngine(int shardCount) {
+        this(shardCount, TickRates.DEFAULT, DEFAULT_MAX_CATCH_UP, DEFAULT_SPIN_MICROS);
+    }
+
+    MatchTickEngine(int shardCount, TickRates rates, int maxCatchUp, long spinMicros) {
+        this.rates = rates;
+        this.maxCatchUp = maxCatchUp;
+        this.spinNanos = TimeUnit.MICROSECONDS.toNanos(spinMicros);
+        shards = new Shard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    // Assign a match to the shard with the smallest current load
+    public void register(Match m) {
+        Shard target = leastLoaded(null);
+        m.shard = target;
+        target.matches.add(m);
+    }
+
+    // Release a match's scheduling slot; safe to call more than once and from any thread
+    public void release(Match m) {
+        Shard s = m.shard;
+        m.shard = null;
+        if (s != null) s.matches.remove(m);
+    }
+
+    public int getShardCount() { return shards.length; }
+
+    // Matches currently scheduled, for monitoring; safe to call from any thread
+    public List<Match> getMatches() {
+        List<Match> all = new ArrayList<>();
+        for (Shard s : shards) all.addAll(s.matches);
+        return all;
+    }
+
+    public int getMatchCount() {
+        int n = 0;
+        for (Shard s : shards) n += s.matches.size();
+        return n;
+    }
+
+    // Matches idling until input or a timer deadline (see Match.doze)
+    public int getSleepingCount() {
+        int n = 0;
+        for (Shard s : shards) {
+            for (Match m : s.matches) if (m.isAsleep()) n++;
+        }
+        return n;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Shard s : shards) {
+            s.ticker.stop();
+        }
+    }
+
+    // Step timing summed over all shards (drift and lateness: the worst shard)
+    public Map<String, Object> getClockStats() {
+        long steps = 0, catchUp = 0, missed = 0, skipped = 0, drift = 0, late = 0;
+        for (Shard s : shards) {
+            FixedStepLoop t = s.ticker;
+            steps += t.getSteps();
+            catchUp += t.getCatchUpSteps();
+            missed += t.getMissedDeadlines();
+            skipped += t.getSkippedSteps();
+            drift = Math.max(drift, t.getDriftNanos());
+            late = Math.max(late, t.getMaxLateNanos());
+        }
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("steps", steps);
+        m.put("catchUpSteps", catchUp);
+        m.put("missedDeadlines", missed);
+        m.put("skippedSteps", skipped);
+        m.put("driftMs", drift / 1_000_000.0);
+        m.put("maxLateMs", late / 1_000_000.0);
+        return m;
+    }
+
+    void resetClockStats() {
+        for (Shard s : shards) s.ticker.resetMaxLate();
+    }
+
+    // Phase timings of every match tick, merged over the shards' own profiles
+    public Map<String, Object> getProfileSummary() {
+        TickProfile merged = new TickProfile();
+        for (Shard s : shards) s.profile.addTo(merged);
+        return merged.summary();
+    }
+
+    void resetProfile() {
+        for (Shard s : shards) s.profile.reset();
+    }
+
+    private Shard leastLoaded(Shard exclude) {
+        Shard best = null;
+        for (Shard s : shards) {
+            if (s == exclude) continue;
+            if (best == null || s.load() < best.load()) best = s;
+        }
+        return best;
+    }
+
+    // Move the most expensive match off a shard that is falling behind
+    private void rebalance(Shard from) {
+        if (from.matches.size() < 2) return;
+        Shard to = leastLoaded(from);
+        if (to == null) return;
+        Match heaviest = null;
+        for (Match m : from.matches) {
+            if (heaviest == null || m.lastTickNanos > heaviest.lastTickNanos) heaviest = m;
+        }
+        if (heaviest == null) return;
+        // Only move if it actually evens things out
+        if (to.load() + heaviest.lastTickNanos >= from.load()) return;
+        if (from.matches.remove(heaviest)) {
+            heaviest.shard = to;
+            to.matches.add(heaviest);
+            System.out.println("[ENGINE] Moved match " + heaviest.id + " from shard " + from.index + " to shard " + to.index);
+        }
+    }
+
+    final class Shard {
+        final int index;
+        final List<Match> matches = new CopyOnWriteArrayList<>();
+        final FixedStepLoop ticker;
+        // Phase timings of the matches ticked by this shard; only its own tick thread records into it
+        final TickProfile profile = new TickProfile();
+        // Exponentially smoothed duration of a full pass over this shard's matches
+        volatile long avgPassNanos = 0;
+
+        Shard(int index) {
+            this.index = index;
+            this.ticker = new FixedStepLoop("match-tick-" + index, rates.stepNanos, maxCatchUp, spinNanos, this::runPass);
+            ticker.start();
+        }
+
+        long load() { return avgPassNanos + matches.size() * NEW_MATCH_COST_NANOS; }
+
+        private void runPass(long due) {
+            long t0 = System.nanoTime();
+            for (Match m : matches) {
+                // The match may have been released or moved while we were iterating
+                if (m.shard != this) continue;
+                // A sleeping match only moves its clock on
+                if (m.doze()) continue;
+                long m0 = System.nanoTime();
+                // Includes the time spent on the matches ahead of it in this pass
+                long lag = Math.max(0, m0 - due);
+                m.tickLagNanos = lag;
+                profile.record(TickProfile.Phase.LAG, lag);
+                m.phases.record(TickProfile.Phase.LAG, lag);
+                GameEvents.MatchTick event = new GameEvents.MatchTick();
+                event.begin();
+                try {
+                    m.tick();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+                long took = System.nanoTime() - m0;
+                m.lastTickNanos = took;
+                profile.record(TickProfile.Phase.TOTAL, took);
+                m.phases.record(TickProfile.Phase.TOTAL, took);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.matchId = m.id;
+                    event.shard = index;
+                    event.players = m.getPlayerCount();
+                    event.sessions = m.getSessionCount();
+                    event.lag = lag;
+                    event.bytes = m.lastBroadcastBytes;
+                    event.commit();
+                }
+            }
+            long pass = System.nanoTime() - t0;
+            avgPassNanos = (avgPassNanos * 7 + pass) / 8;
+            if (avgPassNanos > rates.stepNanos * REBALANCE_THRESHOLD) {
+                rebalance(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.websocketsql;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import javax.annotation.PreDestroy;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rating and region matchmaking for MatchManager.
+ * Joining or leaving the queue only touches a concurrent map and a lock-free inbox; a single "matchmaker"
+ * thread drains the inbox every game.matchmaking.interval-ms and pairs in batches. Waiting players are kept
+ * per region in a tree ordered by rating, so the closest opponents of a player are its neighbours there.
+ * A player accepts opponents within a search window that starts at game.matchmaking.window rating points
+ * and widens by widen-step every widen-every-ms up to max-window; once it has waited region-fallback-ms it
+ * also looks in other regions. Regions come from game.matchmaking.regions; a client asking for any other region
+ * waits in the default one, so the set of region trees stays small. A waiting player is only looked at when it arrives and when its window
+ * widens, so a batch costs O((arrivals + widenings) log n) however many players are waiting.
+ */
+@Component
+public class Matchmaker {
+    static final String DEFAULT_REGION = "default";
+
+    /** A player waiting for a match. */
+    static final class Ticket {
+        static final int WAITING = 0, MATCHED = 1, CANCELLED = 2;
+
+        final String name;
+        volatile WebSocketSession session;
+        final double rating;
+        final String region;
+        final long seq;
+        final long enqueuedNanos;
+        // Guarded by the ticket's monitor
+        int state = WAITING;
+        // Matchmaker thread only
+        int widenings;
+        long nextWidenNanos;
+        boolean pooled;
+
+        Ticket(String name, WebSocketSession session, double rating, String region, long seq, long now) {
+            this.name = name;
+            this.session = session;
+            this.rating = rating;
+            this.region = region;
+            this.seq = seq;
+            this.enqueuedNanos = now;
+        }
+    }
+
+    interface PairHandler {
+        // Called on the matchmaker thread with both tickets claimed; a cancel() of either waits until it returns
+        void pair(Ticket a, Ticket b);
+    }
+
+    private static final Comparator<Ticket> BY_RATING =
+        Comparator.<Ticket>comparingDouble(t -> t.rating).thenComparingLong(t -> t.seq);
+
+    private final long intervalMs;
+    private final double window, widenStep, maxWindow;
+    private final long widenEveryNanos, regionFallbackNanos;
+    // Regions a client may ask for
+    private final Set<String> knownRegions = new HashSet<>();
+
+    private final Map<String, Ticket> tickets = new ConcurrentHashMap<>();
+    private final Queue<Ticket> inbox = new ConcurrentLinkedQueue<>();
+    private final Queue<Ticket> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong nextSeq = new AtomicLong();
+    // Matchmaker thread only: waiting tickets per region, and when each ticket's window widens next
+    private final Map<String, TreeSet<Ticket>> regions = new HashMap<>();
+    private final PriorityQueue<Ticket> widenings = new PriorityQueue<>(Comparator.comparingLong(t -> t.nextWidenNanos));
+    private PairHandler handler;
+    private ScheduledExecutorService thread;
+
+    // --- METRICS ---
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong pairs = new AtomicLong();
+    private final AtomicLong cancels = new AtomicLong();
+    private final LatencyHistogram queueTime = new LatencyHistogram();
+    private final LatencyHistogram batchTime = new LatencyHistogram();
+    private volatile double pairsPerSecond;
+    private long rateSampleNanos = System.nanoTime();
+    private long rateSamplePairs;
+
+    @Autowired
+    public Matchmaker(@Value("${game.matchmaking.interval-ms:100}") long intervalMs,
+                      @Value("${game.matchmaking.window:100}") double window,
+                      @Value("${game.matchmaking.widen-step:50}") double widenStep,
+                      @Value("${game.matchmaking.widen-every-ms:5000}") long widenEveryMs,
+                      @Value("${game.matchmaking.max-window:600}") double maxWindow,
+                      @Value("${game.matchmaking.region-fallback-ms:15000}") long regionFallbackMs,
+                      @Value("${game.matchmaking.regions:eu,na,sa,asia,oce}") String regions) {
+        this.intervalMs = Math.max(1, intervalMs);
+        this.window = Math.max(0, window);
+        this.widenStep = Math.max(0, widenStep);
+        this.widenEveryNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, widenEveryMs));
+        this.maxWindow = Math.max(this.window, maxWindow);
+        this.regionFallbackNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, regionFallbackMs));
+        knownRegions.add(DEFAULT_REGION);
+        for (String r : regions.split(",")) {
+            if (!r.trim().isEmpty()) knownRegions.add(r.trim());
+        }
+    }
+
+    // Defaults, for benchmarks and offline runs
+    public Matchmaker() {
+        this(100, 100, 50, 5000, 600, 15000, "eu,na,sa,asia,oce");
+    }
+
+    // Starts the pairing thread; MatchManager supplies what happens to a pair
+    synchronized void start(PairHandler handler) {
+        if (thread != null) return;
+        this.handler = handler;
+        thread = Executors.newSingleThreadScheduledExecutor(r -> { Thread t = new Thread(r, "matchmaker"); t.setDaemon(true); return t; });
+        thread.scheduleWithFixedDelay(this::runBatch, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (thread != null) thread.shutdownNow();
+    }
+
+    // Puts a player in the queue; a player who is already waiting keeps their place with the new session
+    void enqueue(String name, WebSocketSession session, double rating, String region) {
+        if (region == null || !knownRegions.contains(region)) region = DEFAULT_REGION;
+        Ticket t = new Ticket(name, session, rating, region, nextSeq.getAndIncrement(), System.nanoTime());
+        Ticket prev = tickets.putIfAbsent(name, t);
+        if (prev != null) {
+            prev.session = session;
+            return;
+        }
+        waiting.incrementAndGet();
+        inbox.add(t);
+    }
+
+    // Takes a player out of the queue. If the player is being paired right now, this waits until they are in
+    // their match, so the caller can then remove them from it.
+    void cancel(String name) {
+        Ticket t = tickets.remove(name);
+        if (t == null) return;
+        synchronized (t) {
+            if (t.state != Ticket.WAITING) return;
+            t.state = Ticket.CANCELLED;
+        }
+        waiting.decrementAndGet();
+        cancels.incrementAndGet();
+        cancelled.add(t);
+    }
+
+    boolean isWaiting(String name) { return tickets.containsKey(name); }
+
+    public int getWaiting() { return waiting.get(); }
+
+    Map<String, Object> summary() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("waiting", waiting.get());
+        m.put("pairs", pairs.get());
+        m.put("cancelled", cancels.get());
+        m.put("pairsPerSecond", Math.round(pairsPerSecond * 10) / 10.0);
+        m.put("queueTime", queueTime.summary());
+        m.put("batch", batchTime.summary());
+        return m;
+    }
+
+    void resetMetrics() {
+        queueTime.reset();
+        batchTime.reset();
+    }
+
+    // One pairing pass on the matchmaker thread
+    void runBatch() {
+        try {
+            long now = System.nanoTime();
+            Ticket t;
+            while ((t = cancelled.poll()) != null) unpool(t);
+            while ((t = inbox.poll()) != null) {
+                if (t.state != Ticket.WAITING) continue;
+                pool(t, now);
+                search(t, now);
+            }
+            while ((t = widenings.peek()) != null && t.nextWidenNanos <= now) {
+                widenings.poll();
+                if (!t.pooled) continue;
+                t.widenings++;
+                scheduleWidening(t);
+                search(t, now);
+            }
+            long end = System.nanoTime();
+            batchTime.record(end - now);
+            if (end - rateSampleNanos >= TimeUnit.SECONDS.toNanos(1)) {
+                long p = pairs.get();
+                pairsPerSecond = (p - rateSamplePairs) * 1e9 / (end - rateSampleNanos);
+                rateSamplePairs = p;
+                rateSampleNanos = end;
+            }
+        } catch (Exception ex) {
+            // Keep the scheduled task alive
+            ex.printStackTrace();
+        }
+    }
+
+    private double windowOf(Ticket t) {
+        return Math.min(maxWindow, window + t.widenings * widenStep);
+    }
+
+    private void pool(Ticket t, long now) {
+        regions.computeIfAbsent(t.region, r -> new TreeSet<>(BY_RATING)).add(t);
+        t.pooled = true;
+        t.nextWidenNanos = now;
+        scheduleWidening(t);
+    }
+
+    private void unpool(Ticket t) {
+        if (!t.pooled) return;
+        t.pooled = false;
+        TreeSet<Ticket> set = regions.get(t.region);
+        if (set == null) return;
+        set.remove(t);
+        if (set.isEmpty()) regions.remove(t.region);
+    }
+
+    // Widen again later while there is still something to gain: a wider window or the region fallback
+    private void scheduleWidening(Ticket t) {
+        boolean canWiden = windowOf(t) < maxWindow && widenStep > 0;
+        boolean beforeFallback = t.nextWidenNanos - t.enqueuedNanos < regionFallbackNanos;
+        if (!canWiden && !beforeFallback) return;
+        t.nextWidenNanos += widenEveryNanos;
+        widenings.add(t);
+    }
+
+    // Pair t with its closest acceptable opponent, if it has one
+    private void search(Ticket t, long now) {
+        while (t.pooled) {
+            double w = windowOf(t);
+            Ticket best = closest(regions.get(t.region), t, w, null);
+            if (best == null && now - t.enqueuedNanos >= regionFallbackNanos) {
+                for (Map.Entry<String, TreeSet<Ticket>> e : regions.entrySet()) {
+                    if (!e.getKey().equals(t.region)) best = closest(e.getValue(), t, w, best);
+                }
+            }
+            if (best == null) return;
+            if (claim(t, best)) {
+                unpool(t);
+                unpool(best);
+                tickets.remove(t.name, t);
+                tickets.remove(best.name, best);
+                waiting.addAndGet(-2);
+                pairs.incrementAndGet();
+                queueTime.record(now - t.enqueuedNanos);
+                queueTime.record(now - best.enqueuedNanos);
+                return;
+            }
+            // One of them was cancelled meanwhile; drop it and look again
+            if (t.state != Ticket.WAITING) unpool(t);
+            if (best.state != Ticket.WAITING) unpool(best);
+        }
+    }
+
+    // The closer of t's two rating neighbours in set that either side's window accepts, or best if that is closer
+    private Ticket closest(TreeSet<Ticket> set, Ticket t, double w, Ticket best) {
+        if (set == null) return best;
+        best = better(t, w, set.lower(t), best);
+        return better(t, w, set.higher(t), best);
+    }
+
+    private Ticket better(Ticket t, double w, Ticket candidate, Ticket best) {
+        if (candidate == null || candidate == t) return best;
+        double d = Math.abs(candidate.rating - t.rating);
+        if (d > Math.max(w, windowOf(candidate))) return best;
+        return best == null || d < Math.abs(best.rating - t.rating) ? candidate : best;
+    }
+
+    // Marks both tickets matched and hands them to the handler, holding both so cancel() cannot interleave.
+    // Locks are taken in queue order; cancel() only ever holds one.
+    private boolean claim(Ticket a, Ticket b) {
+        Ticket first = a.seq < b.seq ? a : b, second = first == a ? b : a;
+        synchronized (first) {
+            synchronized (second) {
+                if (a.state != Ticket.WAITING || b.state != Ticket.WAITING) return false;
+                a.state = Ticket.MATCHED;
+                b.state = Ticket.MATCHED;
+                handler.pair(a, b);
+                return true;
+            }
+        }
+    }
+}
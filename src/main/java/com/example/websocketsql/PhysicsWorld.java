@@ -0,0 +1,658 @@
+package com.example.websocketsql;
+
+import java.util.Arrays;
+
+/**
+ * The arena simulation shared by Match, the free-play GameLoop and the offline SimulationRunner.
+ * Pure physics: no Spring, sessions or networking. A tick is collideCars, stepBall, stepCars, then collideBall
+ * (step() runs all four); drivers that time the phases call them one by one. Goals are reported through
+ * GoalListener at the moment the ball crosses the line so the driver can apply its rules (score, reset)
+ * before the rest of the tick runs.
+ */
+final class PhysicsWorld {
+    // The step length (seconds) the per-step friction factors were tuned at; the live step comes from
+    // TickRates, and Step rescales the factors to it once
+    static final double DT = 0.033;
+
+    /**
+     * One step length and the friction factors for it. Factors are tuned to be applied once per DT; for any
+     * other step they are rescaled here, once per rate, never per step.
+     */
+    static final class Step {
+        static final Step TUNED = new Step(DT);
+
+        final double dt;
+        final double coast, braking, ballFast, ballSlow;
+
+        Step(double dt) {
+            this.dt = dt;
+            this.coast = perStep(0.7, dt);
+            this.braking = perStep(0.85, dt);
+            this.ballFast = perStep(0.985, dt);
+            this.ballSlow = perStep(0.995, dt);
+        }
+
+        private static double perStep(double factor, double dt) {
+            return dt == DT ? factor : Math.pow(factor, dt / DT);
+        }
+    }
+
+    // --- ARENA ---
+    // Canvas: 1040x600, field: x=120..919, y=0..599, goals: x=0..119 (left), x=920..1039 (right)
+    static final double WIDTH = 1040, HEIGHT = 600;
+    static final double GOAL_LINE_LEFT = 120, GOAL_LINE_RIGHT = 920;
+    static final double GOAL_MOUTH_TOP = 210, GOAL_MOUTH_BOTTOM = 390;
+    // A high ball (z > BALL_GOAL_MAX_Z) bounces off the goal fronts at this distance from the edges
+    static final double GOAL_WIDTH = 145;
+    static final double BALL_GOAL_MAX_Z = 6.5;
+    static final double BALL_WALL_RADIUS = 30;
+    static final double GOAL_PADDING = 5; // extra padding for goal detection
+    static final double CAR_RADIUS = 24.0;
+    static final double Z_THRESHOLD = 3; // max vertical distance for car-car and car-ball contact
+    static final double REST_SPEED = 1.0; // units/second; cars stop below this, see atRest() for the ball
+    // Corner patches {x, y, w, h}
+    private static final double[][] PATCHES = {
+        {0, 0, 120, 120},           // top-left
+        {920, 0, 120, 120},         // top-right
+        {0, 480, 120, 120},         // bottom-left
+        {920, 480, 120, 120}        // bottom-right
+    };
+
+    static final int GOAL_LEFT = 1, GOAL_RIGHT = 2;
+
+    // --- BROADPHASE ---
+    // Uniform grid over the canvas. A cell is as wide as the largest car-car contact distance (two cars
+    // at the maximum height scale of 2), which also covers car-ball contacts, so anything that can touch
+    // is in the same or a neighbouring cell.
+    static final double CELL = 4 * CAR_RADIUS;
+    private static final int GRID_COLS = (int) Math.ceil(WIDTH / CELL);
+    private static final int GRID_ROWS = (int) Math.ceil(HEIGHT / CELL);
+
+    interface GoalListener {
+        // side is GOAL_LEFT (ball went into the left goal) or GOAL_RIGHT
+        void onGoal(int side);
+    }
+
+    final Ball ball = new Ball();
+
+    // --- CARS ---
+    // Structure of arrays: car i is x[i], y[i], ... for i in 0..count-1. Slots stay dense: removing a car
+    // moves the last car into the freed slot, and drivers that keep slot numbers fix them up from the
+    // value removeCar() returns. Structural changes and ticks must not overlap: Match and GameLoop are the
+    // only writers of their worlds, and apply adds and removes queued through MatchCommands on their tick thread.
+    volatile int count;
+    String[] name;
+    double[] x, y, vx, vy, angle, z, vz;
+    double[] boostFuel;
+    int[] lastAppliedSeq;
+    // pending jump latch to avoid missed presses between network/tick boundaries
+    boolean[] pendingJump;
+    boolean[] boostLocked;
+    // Cars that are not active are skipped by every phase (free-play players who are in a match)
+    boolean[] active;
+    // Input applied by the next stepCars(); filled by the driver
+    int[] inSeq;
+    double[] inThrottle, inSteer;
+    boolean[] inJump, inBoost, inBrake;
+
+    // Grid membership, kept as doubly linked lists per cell and updated only for cars that changed cell
+    private final int[] cellHead = new int[GRID_COLS * GRID_ROWS];
+    private int[] cellOf, cellNext, cellPrev;
+    // Broadphase scratch: neighbour slots of one car (or of the ball)
+    private int[] near;
+
+    PhysicsWorld() {
+        this(4);
+    }
+
+    PhysicsWorld(int capacity) {
+        allocate(Math.max(1, capacity));
+        Arrays.fill(cellHead, -1);
+        ball.reset();
+    }
+
+    private void allocate(int capacity) {
+        name = name == null ? new String[capacity] : Arrays.copyOf(name, capacity);
+        x = grow(x, capacity); y = grow(y, capacity);
+        vx = grow(vx, capacity); vy = grow(vy, capacity);
+        angle = grow(angle, capacity);
+        z = grow(z, capacity); vz = grow(vz, capacity);
+        boostFuel = grow(boostFuel, capacity);
+        lastAppliedSeq = lastAppliedSeq == null ? new int[capacity] : Arrays.copyOf(lastAppliedSeq, capacity);
+        pendingJump = grow(pendingJump, capacity);
+        boostLocked = grow(boostLocked, capacity);
+        active = grow(active, capacity);
+        inSeq = inSeq == null ? new int[capacity] : Arrays.copyOf(inSeq, capacity);
+        inThrottle = grow(inThrottle, capacity); inSteer = grow(inSteer, capacity);
+        inJump = grow(inJump, capacity); inBoost = grow(inBoost, capacity); inBrake = grow(inBrake, capacity);
+        int from = cellOf == null ? 0 : cellOf.length;
+        cellOf = cellOf == null ? new int[capacity] : Arrays.copyOf(cellOf, capacity);
+        Arrays.fill(cellOf, from, capacity, -1);
+        cellNext = cellNext == null ? new int[capacity] : Arrays.copyOf(cellNext, capacity);
+        cellPrev = cellPrev == null ? new int[capacity] : Arrays.copyOf(cellPrev, capacity);
+        near = new int[capacity];
+    }
+
+    private static double[] grow(double[] a, int capacity) {
+        return a == null ? new double[capacity] : Arrays.copyOf(a, capacity);
+    }
+
+    private static boolean[] grow(boolean[] a, int capacity) {
+        return a == null ? new boolean[capacity] : Arrays.copyOf(a, capacity);
+    }
+
+    int capacity() { return name.length; }
+
+    // Adds a car and returns its slot
+    int addCar(String carName, double x0, double y0, double angle0) {
+        int i = count;
+        if (i == name.length) allocate(i * 2);
+        name[i] = carName;
+        respawn(i, x0, y0, angle0);
+        active[i] = true;
+        clearInput(i);
+        count = i + 1;
+        return i;
+    }
+
+    // Random spot in the left half, for players beyond the two match sides and for free play
+    int addCarAtRandom(String carName) {
+        return addCar(carName, Math.random() * 400 + 100, Math.random() * 200 + 100, 0);
+    }
+
+    // Removes the car in slot i. Returns the old slot of the car that moved into slot i, or -1 if none did.
+    int removeCar(int i) {
+        int last = count - 1;
+        if (i < 0 || i > last) return -1;
+        int moved = -1;
+        unlink(i);
+        if (i != last) {
+            // The moved car is linked again at its own position by the next grid update
+            unlink(last);
+            name[i] = name[last];
+            x[i] = x[last]; y[i] = y[last];
+            vx[i] = vx[last]; vy[i] = vy[last];
+            angle[i] = angle[last];
+            z[i] = z[last]; vz[i] = vz[last];
+            boostFuel[i] = boostFuel[last];
+            lastAppliedSeq[i] = lastAppliedSeq[last];
+            pendingJump[i] = pendingJump[last];
+            boostLocked[i] = boostLocked[last];
+            active[i] = active[last];
+            inSeq[i] = inSeq[last];
+            inThrottle[i] = inThrottle[last]; inSteer[i] = inSteer[last];
+            inJump[i] = inJump[last]; inBoost[i] = inBoost[last]; inBrake[i] = inBrake[last];
+            moved = last;
+        }
+        name[last] = null;
+        count = last;
+        return moved;
+    }
+
+    void clear() {
+        Arrays.fill(name, 0, count, null);
+        Arrays.fill(cellOf, 0, count, -1);
+        Arrays.fill(cellHead, -1);
+        count = 0;
+    }
+
+    // Slot of the named car, or -1. Linear: only used on joins, leaves and one-off commands.
+    int indexOf(String carName) {
+        for (int i = 0, n = count; i < n; i++) {
+            if (name[i].equals(carName)) return i;
+        }
+        return -1;
+    }
+
+    // Back to a fresh car at the given spot (after a goal)
+    void respawn(int i, double x0, double y0, double angle0) {
+        x[i] = x0; y[i] = y0; angle[i] = angle0;
+        vx[i] = 0; vy[i] = 0; z[i] = 0; vz[i] = 0;
+        boostFuel[i] = 100;
+        lastAppliedSeq[i] = 0;
+        pendingJump[i] = false;
+        boostLocked[i] = false;
+    }
+
+    void setInput(int i, InputSlot in) {
+        inSeq[i] = in.seq;
+        inThrottle[i] = in.throttle; inSteer[i] = in.steer;
+        inJump[i] = in.jump; inBoost[i] = in.boost; inBrake[i] = in.brake;
+    }
+
+    // True when nothing moves and the inputs would not move anything, so a tick would leave the world as it is.
+    // The ball counts as still below REST_SPEED (its friction never quite stops it).
+    boolean atRest() {
+        if (ball.z != 0 || ball.vz != 0 || Math.abs(ball.vx) + Math.abs(ball.vy) >= REST_SPEED) return false;
+        for (int i = 0, n = count; i < n; i++) {
+            if (!active[i]) continue;
+            if (vx[i] != 0 || vy[i] != 0 || vz[i] != 0 || z[i] != 0 || pendingJump[i]) return false;
+            if (inThrottle[i] != 0 || inSteer[i] != 0 || inJump[i] || inBoost[i]) return false;
+        }
+        return true;
+    }
+
+    void clearInput(int i) {
+        inSeq[i] = 0;
+        inThrottle[i] = 0; inSteer[i] = 0;
+        inJump[i] = false; inBoost[i] = false; inBrake[i] = false;
+    }
+
+    // One full tick
+    int step(Step s, GoalListener goals) {
+        collideCars();
+        int goal = stepBall(s, goals);
+        stepCars(s);
+        collideBall();
+        return goal;
+    }
+
+    // Car-car contacts (simple elastic, like wall), only if on the same z level.
+    // Candidate pairs come from the grid, each pair once in (i, j) order; a contact is resolved from
+    // both sides back to back, as the old all-pairs loop did for two touching cars.
+    void collideCars() {
+        updateGrid();
+        int n = count;
+        for (int i = 0; i < n; i++) {
+            if (cellOf[i] < 0) continue;
+            int m = gatherNear(cellOf[i], i);
+            for (int k = 0; k < m; k++) {
+                int j = near[k];
+                if (Math.abs(z[i] - z[j]) > Z_THRESHOLD) continue; // skip collision if not on same level
+                collidePair(i, j);
+                collidePair(j, i);
+            }
+        }
+    }
+
+    private void collidePair(int i, int j) {
+        double p1Scale = 1.0 + Math.min(1.0, z[i] * 0.12);
+        double p1Radius = CAR_RADIUS * p1Scale;
+        double p2Scale = 1.0 + Math.min(1.0, z[j] * 0.12);
+        double p2Radius = CAR_RADIUS * p2Scale;
+        double dx = x[j] - x[i], dy = y[j] - y[i];
+        double dist = Math.hypot(dx, dy);
+        double minDist = p1Radius + p2Radius;
+        if (dist < minDist && dist > 0.0001) {
+            // Push players apart
+            double nx = dx / dist;
+            double ny = dy / dist;
+            double overlap = minDist - dist;
+            // Move each player half the overlap
+            x[i] -= nx * (overlap / 2.0);
+            y[i] -= ny * (overlap / 2.0);
+            x[j] += nx * (overlap / 2.0);
+            y[j] += ny * (overlap / 2.0);
+            // Reflect velocities (like wall, with damping)
+            double v1n = vx[i] * nx + vy[i] * ny;
+            double v2n = vx[j] * nx + vy[j] * ny;
+            // Only reflect if moving toward each other
+            if (v1n - v2n > 0) {
+                double bounce = 0.8;
+                double v1nNew = v2n * bounce;
+                double v2nNew = v1n * bounce;
+                vx[i] += (v1nNew - v1n) * nx;
+                vy[i] += (v1nNew - v1n) * ny;
+                vx[j] += (v2nNew - v2n) * nx;
+                vy[j] += (v2nNew - v2n) * ny;
+            }
+        }
+    }
+
+    private static int cellIndex(double px, double py) {
+        int col = (int) (px / CELL), row = (int) (py / CELL);
+        col = col < 0 ? 0 : Math.min(col, GRID_COLS - 1);
+        row = row < 0 ? 0 : Math.min(row, GRID_ROWS - 1);
+        return row * GRID_COLS + col;
+    }
+
+    // Re-link the cars whose cell changed since the last update; inactive cars are taken out of the grid
+    private void updateGrid() {
+        for (int i = 0, n = count; i < n; i++) {
+            int c = active[i] ? cellIndex(x[i], y[i]) : -1;
+            if (c == cellOf[i]) continue;
+            unlink(i);
+            if (c >= 0) {
+                int head = cellHead[c];
+                cellNext[i] = head;
+                cellPrev[i] = -1;
+                if (head >= 0) cellPrev[head] = i;
+                cellHead[c] = i;
+                cellOf[i] = c;
+            }
+        }
+    }
+
+    private void unlink(int i) {
+        int c = cellOf[i];
+        if (c < 0) return;
+        int prev = cellPrev[i], next = cellNext[i];
+        if (prev >= 0) cellNext[prev] = next; else cellHead[c] = next;
+        if (next >= 0) cellPrev[next] = prev;
+        cellOf[i] = -1;
+    }
+
+    // Slots above `after` in the 3x3 cells around `cell`, ascending, into near[]; returns how many
+    private int gatherNear(int cell, int after) {
+        int col = cell % GRID_COLS, row = cell / GRID_COLS;
+        int m = 0;
+        for (int r = Math.max(0, row - 1); r <= Math.min(GRID_ROWS - 1, row + 1); r++) {
+            for (int c = Math.max(0, col - 1); c <= Math.min(GRID_COLS - 1, col + 1); c++) {
+                for (int j = cellHead[r * GRID_COLS + c]; j >= 0; j = cellNext[j]) {
+                    if (j > after) near[m++] = j;
+                }
+            }
+        }
+        // Slot order keeps results independent of the order cars were linked in
+        Arrays.sort(near, 0, m);
+        return m;
+    }
+
+    // Ball integration, walls, goal detection and corner patches. Returns the goal scored this tick, if any.
+    int stepBall(Step s, GoalListener goals) {
+        ball.update(s);
+        double ballRadius = BALL_WALL_RADIUS;
+        // Only restrict at outer canvas edge if not in goal zone (y in goal range)
+        boolean inRightGoal = (ball.x > GOAL_LINE_RIGHT && ball.y > GOAL_MOUTH_TOP && ball.y < GOAL_MOUTH_BOTTOM);
+        boolean inLeftGoal = (ball.x < GOAL_LINE_LEFT && ball.y > GOAL_MOUTH_TOP && ball.y < GOAL_MOUTH_BOTTOM);
+        double ballMaxX = inRightGoal ? WIDTH : WIDTH - ballRadius;
+        double ballMinX = inLeftGoal ? 0 : ballRadius;
+        double fieldLeft = GOAL_WIDTH, fieldRight = WIDTH - GOAL_WIDTH;
+        int goal = 0;
+        // Ball can only enter a goal while low
+        if (ball.z > BALL_GOAL_MAX_Z) {
+            if (ball.x - ballRadius < fieldLeft) {
+                ball.x = fieldLeft + ballRadius;
+                ball.vx = Math.abs(ball.vx);
+            } else if (ball.x + ballRadius > fieldRight) {
+                ball.x = fieldRight - ballRadius;
+                ball.vx = -Math.abs(ball.vx);
+            }
+        } else {
+            // A goal counts once the ball (plus padding) is fully past the goal line
+            if (ball.x + ballRadius + GOAL_PADDING < GOAL_LINE_LEFT) {
+                goal = GOAL_LEFT;
+            } else if (ball.x - ballRadius - GOAL_PADDING > GOAL_LINE_RIGHT) {
+                goal = GOAL_RIGHT;
+            }
+            if (goal != 0 && goals != null) goals.onGoal(goal);
+            if (ball.x < ballMinX) { ball.x = ballMinX; ball.vx = -ball.vx * 0.8; }
+            if (ball.x > ballMaxX) { ball.x = ballMaxX; ball.vx = -ball.vx * 0.8; }
+        }
+        if (ball.y < ballRadius) { ball.y = ballRadius; ball.vy = -ball.vy * 0.8; }
+        if (ball.y > HEIGHT - ballRadius) { ball.y = HEIGHT - ballRadius; ball.vy = -ball.vy * 0.8; }
+
+        // --- GREEN PATCH (CORNER) COLLISION LOGIC FOR BALL (MATCHES CAR LOGIC) ---
+        for (double[] patch : PATCHES) {
+            double px = patch[0], py = patch[1], pw = patch[2], ph = patch[3];
+            double closestX = Math.max(px, Math.min(ball.x, px + pw));
+            double closestY = Math.max(py, Math.min(ball.y, py + ph));
+            double dx = ball.x - closestX, dy = ball.y - closestY;
+            if ((dx * dx + dy * dy) <= (ballRadius * ballRadius)) {
+                double len = Math.hypot(dx, dy);
+                double nx = (len == 0) ? 1 : dx / len;
+                double ny = (len == 0) ? 0 : dy / len;
+                // Clamp to edge
+                ball.x = closestX + nx * (ballRadius + 0.1);
+                ball.y = closestY + ny * (ballRadius + 0.1);
+                // Reflect and dampen normal velocity, keep tangent (like wall)
+                double vdotn = ball.vx * nx + ball.vy * ny;
+                double vnormx = nx * vdotn;
+                double vnormy = ny * vdotn;
+                double vtangx = ball.vx - vnormx;
+                double vtangy = ball.vy - vnormy;
+                double bounce = 0.5;
+                ball.vx = vtangx - vnormx * bounce;
+                ball.vy = vtangy - vnormy * bounce;
+                break;
+            }
+        }
+        return goal;
+    }
+
+    // Apply each active car's current input
+    void stepCars(Step s) {
+        for (int i = 0, n = count; i < n; i++) {
+            if (!active[i]) continue;
+            applyInput(i, s);
+            lastAppliedSeq[i] = inSeq[i];
+        }
+    }
+
+    // Car-ball contacts after all movement updates, in slot order. Only cars near the ball are checked
+    // until one of them moves it; the rest of the slots are then checked in full, as before.
+    void collideBall() {
+        updateGrid();
+        int m = gatherNear(cellIndex(ball.x, ball.y), -1);
+        for (int k = 0; k < m; k++) {
+            int i = near[k];
+            if (collideCarBall(i)) {
+                for (int j = i + 1, n = count; j < n; j++) {
+                    if (active[j]) collideCarBall(j);
+                }
+                return;
+            }
+        }
+    }
+
+    // Returns true if the car touched (and therefore moved) the ball
+    private boolean collideCarBall(int i) {
+        // Only collide if ball and player are on the same z level
+        double dz = z[i] - ball.z;
+        if (Math.abs(dz) > Z_THRESHOLD) return false;
+        double pScale = 1.0 + Math.min(1.0, z[i] * 0.12);
+        double pRadius = CAR_RADIUS * pScale;
+        double bScale = 1.0 + Math.min(1.0, ball.z * 0.12);
+        double bRadius = 20.0 * bScale;
+        double dx = ball.x - x[i], dy = ball.y - y[i];
+        double carSpeed = Math.hypot(vx[i], vy[i]);
+        double minDist = pRadius + bRadius;
+        double dist = Math.hypot(dx, dy);
+        if (dist < minDist) {
+            double nx = dx / dist;
+            double ny = dy / dist;
+            if (carSpeed > 400.0) {
+                // High-speed: launch ball and slow car (jump)
+                double vxNorm = vx[i] / carSpeed;
+                double vyNorm = vy[i] / carSpeed;
+                vx[i] *= 0.1;
+                vy[i] *= 0.1;
+                ball.vx += vxNorm * (carSpeed * 1.2);
+                ball.vy += vyNorm * (carSpeed * 1.2);
+                // Ball jump effect if hit hard and on ground
+                if (ball.z <= 0.001) {
+                    ball.vz = 60;
+                }
+            } else if (carSpeed > 200.0) {
+                // Medium-speed: dramatic velocity transfer, no jump, car slows a lot
+                double vxNorm = vx[i] / carSpeed;
+                double vyNorm = vy[i] / carSpeed;
+                vx[i] *= 0.05;
+                vy[i] *= 0.05;
+                ball.vx += vxNorm * (carSpeed * 1.1);
+                ball.vy += vyNorm * (carSpeed * 1.1);
+            } else {
+                // Low-speed: 2D elastic collision (equal mass), only if moving toward each other
+                double rvx = ball.vx - vx[i];
+                double rvy = ball.vy - vy[i];
+                double relVelAlongNormal = rvx * nx + rvy * ny;
+                if (relVelAlongNormal < 0) {
+                    double ballVn = ball.vx * nx + ball.vy * ny;
+                    double ballVt = -ball.vx * ny + ball.vy * nx;
+                    double carVn = vx[i] * nx + vy[i] * ny;
+                    double carVt = -vx[i] * ny + vy[i] * nx;
+                    // Swap normal components, keep tangential, with damping
+                    double bounce = 0.85;
+                    double newBallVn = carVn * bounce;
+                    double newCarVn = ballVn * bounce;
+                    ball.vx = newBallVn * nx - ballVt * ny;
+                    ball.vy = newBallVn * ny + ballVt * nx;
+                    vx[i] = newCarVn * nx - carVt * ny;
+                    vy[i] = newCarVn * ny + carVt * nx;
+                }
+            }
+            // Only push the ball away from the player; never modify the player's position
+            ball.x = x[i] + nx * minDist;
+            ball.y = y[i] + ny * minDist;
+            return true;
+        }
+        return false;
+    }
+
+    // Integrate car i with its current input. Works on locals and writes the slot back once.
+    void applyInput(int i, Step s) {
+        double dt = s.dt;
+        double x = this.x[i], y = this.y[i], vx = this.vx[i], vy = this.vy[i];
+        double angle = this.angle[i], z = this.z[i], vz = this.vz[i];
+        double boostFuel = this.boostFuel[i];
+        boolean boostLocked = this.boostLocked[i];
+        double throttle = inThrottle[i], steer = inSteer[i];
+        boolean jump = inJump[i], boost = inBoost[i], brake = inBrake[i];
+
+        double forward = throttle;
+        double accelMag = 700.0 * forward * dt;
+        boolean boostLockActive = false;
+        // --- BOOST LOCKOUT LOGIC ---
+        // If jump is pressed, lock boost until boost key is released
+        if (jump && z <= 0.001) {
+            boostLocked = true;
+        }
+        if (!boost) {
+            boostLocked = false;
+        }
+        // Boost lock: if in air and boosting and has fuel, freeze z/vz
+        if (boost && boostFuel > 0 && z > 0.001 && !boostLocked) {
+            boostLockActive = true;
+        }
+        if (boost && boostFuel > 0 && !boostLocked) { accelMag += 800.0 * dt; boostFuel -= 40.0 * dt; }
+        if (brake) {
+            accelMag = 0;
+        }
+        // --- GREEN PATCH (CORNER) COLLISION LOGIC ---
+        double carRadius = CAR_RADIUS;
+        for (double[] patch : PATCHES) {
+            double px = patch[0], py = patch[1], pw = patch[2], ph = patch[3];
+            double closestX = Math.max(px, Math.min(x, px + pw));
+            double closestY = Math.max(py, Math.min(y, py + ph));
+            double dx = x - closestX, dy = y - closestY;
+            if ((dx * dx + dy * dy) <= (carRadius * carRadius)) {
+                double len = Math.hypot(dx, dy);
+                double nx = (len == 0) ? 1 : dx / len;
+                double ny = (len == 0) ? 0 : dy / len;
+                // Clamp to edge
+                x = closestX + nx * (carRadius + 0.1);
+                y = closestY + ny * (carRadius + 0.1);
+                // Reflect and dampen normal velocity, keep tangent (like wall); input is not blocked
+                double vdotn = vx * nx + vy * ny;
+                double vnormx = nx * vdotn;
+                double vnormy = ny * vdotn;
+                double vtangx = vx - vnormx;
+                double vtangy = vy - vnormy;
+                double bounce = 0.5;
+                vx = vtangx - vnormx * bounce;
+                vy = vtangy - vnormy * bounce;
+                break;
+            }
+        }
+        double facingX = Math.cos(angle);
+        double facingY = Math.sin(angle);
+        // A speed threshold (one tuned step of throttle), so it does not shrink with shorter steps
+        double regularSpeed = 700.0 * DT;
+        vx += facingX * accelMag;
+        vy += facingY * accelMag;
+        double speed = Math.hypot(vx, vy);
+        if (speed <= regularSpeed + 1.0) {
+            double proj = vx * facingX + vy * facingY;
+            vx = facingX * proj;
+            vy = facingY * proj;
+        }
+        if (Math.abs(forward) < 0.01 && speed <= regularSpeed + 1.0) {
+            double coast = s.coast;
+            vx *= coast;
+            vy *= coast;
+        }
+        if (brake) {
+            double braking = s.braking;
+            vx *= braking;
+            vy *= braking;
+            if (throttle != 0) {
+                double slowSpeed = 180.0;
+                vx = facingX * slowSpeed * Math.signum(throttle);
+                vy = facingY * slowSpeed * Math.signum(throttle);
+            }
+        }
+        vx += facingX * accelMag;
+        vy += facingY * accelMag;
+        speed = Math.hypot(vx, vy);
+        if (speed <= regularSpeed + 1.0) {
+            double proj = vx * facingX + vy * facingY;
+            vx = facingX * proj;
+            vy = facingY * proj;
+        }
+        double steerFactor = 2.0 * (1.0 + speed / 300.0);
+        if (brake) {
+            // If brake is held, turn twice as fast
+            steerFactor *= 2;
+        }
+        if (steer != 0) {
+            angle += steer * steerFactor * dt;
+        }
+        double damping = Math.max(0.0, 1.0 - 4.0 * dt); // more friction for cars
+        vx *= damping; vy *= damping;
+        x += vx * dt; y += vy * dt;
+        double scale = 1.0 + Math.min(1.0, z * 0.12);
+        double radius = 20.0 * scale;
+        boolean inRightGoal = (x > GOAL_LINE_RIGHT && y > GOAL_MOUTH_TOP && y < GOAL_MOUTH_BOTTOM);
+        boolean inLeftGoal = (x < GOAL_LINE_LEFT && y > GOAL_MOUTH_TOP && y < GOAL_MOUTH_BOTTOM);
+        double maxX = inRightGoal ? WIDTH : WIDTH - radius;
+        double minX = inLeftGoal ? 0 : radius;
+        double minY = radius, maxY = HEIGHT - radius;
+        if (x < minX) { x = minX; vx = -vx * 0.5; }
+        if (x > maxX) { x = maxX; vx = -vx * 0.5; }
+        if (y < minY) { y = minY; vy = -vy * 0.5; }
+        if (y > maxY) { y = maxY; vy = -vy * 0.5; }
+        if (Math.abs(vx) < 1.0) vx = 0.0;
+        if (Math.abs(vy) < 1.0) vy = 0.0;
+        if (pendingJump[i] && z <= 0.001) { vz = 42; pendingJump[i] = false; }
+        if (jump && z <= 0.001) {
+            vz = 42;
+        }
+        // Lock z/vz while boosting in air with fuel
+        if (!boostLockActive) {
+            vz -= 120.0 * dt;
+            z += vz * dt;
+            if (z < 0) { z = 0; vz = 0; }
+        }
+
+        this.x[i] = x; this.y[i] = y; this.vx[i] = vx; this.vy[i] = vy;
+        this.angle[i] = angle; this.z[i] = z; this.vz[i] = vz;
+        this.boostFuel[i] = boostFuel;
+        this.boostLocked[i] = boostLocked;
+    }
+
+    static final class Ball {
+        double x, y, vx, vy, z, vz;
+
+        void update(Step s) {
+            double dt = s.dt;
+            double speed = Math.hypot(vx, vy);
+            double minSpeed = 20.0; // units/second
+            double keep = speed > minSpeed ? s.ballFast : s.ballSlow;
+            vx *= keep;
+            vy *= keep;
+            x += vx * dt;
+            y += vy * dt;
+            // Ball jump/vertical physics
+            vz -= 150.0 * dt; // gravity
+            z += vz * dt;
+            if (z < 0) { z = 0; vz = 0; }
+        }
+
+        void reset() { x = 520; y = 300; vx = 0; vy = 0; z = 0; vz = 0; }
+
+        // Pop the ball up if it is resting on the ground
+        void jump() {
+            if (z == 0) vz = 60;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.websocketsql;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of position samples, stored column-wise so enqueuing allocates nothing.
+ * Any number of tick threads offer; the DB writer polls. Each slot carries a sequence number
+ * (Vyukov's bounded queue): a producer claims a slot by CAS on the tail, fills the columns and then
+ * publishes the slot by advancing its sequence; a consumer does the same on the head.
+ * Because consumers also claim by CAS, a producer that finds the ring full can discard the oldest
+ * sample itself (drop-oldest) without waiting for the writer.
+ */
+final class PositionRing {
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray sequence;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private final String[] player;
+    private final long[] tick;
+    private final double[] x, y, z, vx, vy, vz;
+
+    PositionRing(int requestedCapacity) {
+        int cap = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+        capacity = cap;
+        mask = cap - 1;
+        sequence = new AtomicLongArray(cap);
+        for (int i = 0; i < cap; i++) sequence.set(i, i);
+        player = new String[cap];
+        tick = new long[cap];
+        x = new double[cap]; y = new double[cap]; z = new double[cap];
+        vx = new double[cap]; vy = new double[cap]; vz = new double[cap];
+    }
+
+    int capacity() { return capacity; }
+
+    // Samples waiting to be written
+    int size() {
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.max(0, Math.min(capacity, t - h));
+    }
+
+    // False if the ring is full
+    boolean offer(String p, long tk, double px, double py, double pz, double pvx, double pvy, double pvz) {
+        long pos = tail.get();
+        while (true) {
+            int slot = (int) (pos & mask);
+            long seq = sequence.get(slot);
+            long dif = seq - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    player[slot] = p;
+                    tick[slot] = tk;
+                    x[slot] = px; y[slot] = py; z[slot] = pz;
+                    vx[slot] = pvx; vy[slot] = pvy; vz[slot] = pvz;
+                    sequence.lazySet(slot, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                return false; // the slot still holds a sample from the previous lap
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    // Claims the oldest sample and returns its position (slot = pos & mask), or -1 if empty.
+    // The caller reads the columns and then hands the slot back with release(pos).
+    private long claim() {
+        long pos = head.get();
+        while (true) {
+            int slot = (int) (pos & mask);
+            long seq = sequence.get(slot);
+            long dif = seq - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) return pos;
+                pos = head.get();
+            } else if (dif < 0) {
+                return -1;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    private void release(long pos) {
+        int slot = (int) (pos & mask);
+        player[slot] = null;
+        sequence.lazySet(slot, pos + capacity);
+    }
+
+    // Throw away the oldest sample; returns false if there was none
+    boolean discardOldest() {
+        long pos = claim();
+        if (pos < 0) return false;
+        release(pos);
+        return true;
+    }
+
+    /** Column buffers the writer drains into. */
+    static final class Batch {
+        final String[] player;
+        final long[] tick;
+        final double[] x, y, z, vx, vy, vz;
+        int size;
+
+        Batch(int capacity) {
+            player = new String[capacity];
+            tick = new long[capacity];
+            x = new double[capacity]; y = new double[capacity]; z = new double[capacity];
+            vx = new double[capacity]; vy = new double[capacity]; vz = new double[capacity];
+        }
+
+        boolean isFull() { return size == player.length; }
+
+        void clear() {
+            Arrays.fill(player, 0, size, null);
+            size = 0;
+        }
+    }
+
+    // Move samples into the batch until it is full or the ring is empty; returns how many were moved
+    int drainTo(Batch b) {
+        int moved = 0;
+        while (!b.isFull()) {
+            long pos = claim();
+            if (pos < 0) break;
+            int slot = (int) (pos & mask);
+            int i = b.size++;
+            b.player[i] = player[slot];
+            b.tick[i] = tick[slot];
+            b.x[i] = x[slot]; b.y[i] = y[slot]; b.z[i] = z[slot];
+            b.vx[i] = vx[slot]; b.vy[i] = vy[slot]; b.vz[i] = vz[slot];
+            release(pos);
+            moved++;
+        }
+        return moved;
+    }
+}
@@ -1,26 +1,118 @@
 package com.example.websocketsql;
 
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
 public class ProfilingController {
     private final GameLoop gameLoop;
+    private final GameHandler gameHandler;
+    private final MatchTickEngine engine;
+    private final GameRepository repo;
+    private final MatchResults results;
+    private final MatchManager matchManager;
+    private final SessionRegistry sessions;
+    private final LobbyPresence presence;
 
-    public ProfilingController(GameLoop gameLoop) {
+    public ProfilingController(GameLoop gameLoop, GameHandler gameHandler, MatchTickEngine engine, GameRepository repo,
+                               MatchResults results, MatchManager matchManager, SessionRegistry sessions,
+                               LobbyPresence presence) {
         this.gameLoop = gameLoop;
+        this.gameHandler = gameHandler;
+        this.engine = engine;
+        this.repo = repo;
+        this.results = results;
+        this.matchManager = matchManager;
+        this.sessions = sessions;
+        this.presence = presence;
     }
 
+    // Phase histograms are cumulative; pass reset=true to start a new measurement window
     @GetMapping("/admin/stats")
-    public Map<String, Object> stats() {
+    public Map<String, Object> stats(@RequestParam(defaultValue = "false") boolean reset) {
         Map<String, Object> m = new HashMap<>();
         m.put("tick", gameLoop.getTick());
         m.put("players", gameLoop.getPlayerCount());
+        m.put("aoiCells", gameLoop.getOccupiedCells());
         m.put("dbQueue", gameLoop.getQueueSize());
+        m.put("dbWritten", repo.getWritten());
+        m.put("dbDropped", repo.getDropped());
+        m.put("dbFailedBatches", repo.getFailedBatches());
+        m.put("resultQueue", results.getQueueSize());
+        m.put("resultsSaved", results.getSaved());
+        m.put("resultsDropped", results.getDropped());
+        m.put("rankedPlayers", results.getRankedPlayers());
+        m.put("matchmaking", matchManager.getMatchmakingStats());
+        m.put("sessions", sessions.summary());
+        m.put("presence", presence.summary());
+        m.put("rejectedMessages", gameHandler.getRejectedMessages());
+        m.put("messages", gameHandler.getMessageCounts());
+        m.put("matches", engine.getMatchCount());
+        m.put("sleepingMatches", engine.getSleepingCount());
+        m.put("shards", engine.getShardCount());
+        m.put("rates", engine.rates.summary());
+        m.put("matchTick", engine.getProfileSummary());
+        m.put("loopTick", gameLoop.getProfile().summary());
+        m.put("matchClock", engine.getClockStats());
+        m.put("loopClock", gameLoop.getClock().summary());
         m.put("timestamp", System.currentTimeMillis());
+        if (reset) {
+            engine.resetProfile();
+            gameLoop.getProfile().reset();
+            engine.resetClockStats();
+            gameLoop.getClock().resetMaxLate();
+            matchManager.resetMatchmakingStats();
+        }
         return m;
     }
+
+    // Per-match view built from volatile fields and concurrent maps only; never blocks a tick thread
+    @GetMapping("/admin/matches")
+    public List<Map<String, Object>> matches() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Match match : engine.getMatches()) {
+            MatchTickEngine.Shard shard = match.shard;
+            int[] outbox = match.getOutboxDepth();
+            Map<String, Object> m = new HashMap<>();
+            m.put("id", match.id);
+            m.put("shard", shard != null ? shard.index : -1);
+            m.put("players", match.getPlayerCount());
+            m.put("asleep", match.isAsleep());
+            m.put("tickLagMs", match.tickLagNanos / 1_000_000.0);
+            m.put("lastTickMs", match.lastTickNanos / 1_000_000.0);
+            m.put("outboxDepth", outbox[0]);
+            m.put("maxOutboxDepth", outbox[1]);
+            m.put("phases", match.phases.summary());
+            out.add(m);
+        }
+        return out;
+    }
+
+    // Per-connection view: state, outbox, RTT and jitter from pings, and the snapshot rate the connection is sent
+    @GetMapping("/admin/sessions")
+    public List<Map<String, Object>> sessions() {
+        double snapshotHz = engine.rates.snapshotHz();
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (ClientSession cs : sessions.connections()) {
+            Match match = cs.match;
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("session", cs.session.getId());
+            m.put("player", cs.playerName);
+            m.put("state", cs.state().name().toLowerCase());
+            m.put("match", match != null ? match.id : null);
+            m.put("binary", cs.isBinary());
+            m.put("outboxDepth", cs.outboxDepth());
+            m.put("outboxBytes", cs.queuedBytes.get());
+            m.putAll(cs.link.summary(snapshotHz));
+            out.add(m);
+        }
+        return out;
+    }
 }
@@ -0,0 +1,139 @@
+package com.example.websocketsql;
+
+import java.util.SplittableRandom;
+
+/**
+ * Players ordered by rating (highest first, ties by name), with positional access.
+ * A skip list whose forward links also store how many entries they jump over, so both the rank of a
+ * player and the entry at a given rank are found in O(log n) expected time, like a search.
+ * Not thread-safe; Leaderboard guards it.
+ */
+final class RankedSkipList {
+    private static final int MAX_LEVEL = 32;
+
+    private static final class Node {
+        final String name;
+        final double rating;
+        final Node[] next;
+        // span[i]: entries passed when following next[i] (to the end of the list if next[i] is null)
+        final int[] span;
+
+        Node(String name, double rating, int level) {
+            this.name = name;
+            this.rating = rating;
+            this.next = new Node[level];
+            this.span = new int[level];
+        }
+    }
+
+    private final Node head = new Node(null, 0, MAX_LEVEL);
+    private final SplittableRandom random = new SplittableRandom();
+    private int level = 1;
+    private int size;
+
+    int size() { return size; }
+
+    // True if node comes before the (rating, name) key
+    private static boolean before(Node node, double rating, String name) {
+        return node.rating > rating || (node.rating == rating && node.name.compareTo(name) < 0);
+    }
+
+    private int randomLevel() {
+        // Each level is kept with probability 1/4
+        int lvl = 1;
+        while (lvl < MAX_LEVEL && (random.nextInt() & 3) == 0) lvl++;
+        return lvl;
+    }
+
+    void insert(String name, double rating) {
+        Node[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && before(x.next[i], rating, name)) {
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        int lvl = randomLevel();
+        if (lvl > level) {
+            for (int i = level; i < lvl; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.span[i] = size;
+            }
+            level = lvl;
+        }
+        Node n = new Node(name, rating, lvl);
+        for (int i = 0; i < lvl; i++) {
+            n.next[i] = update[i].next[i];
+            update[i].next[i] = n;
+            n.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = rank[0] - rank[i] + 1;
+        }
+        // Links above the new node now jump over one more entry
+        for (int i = lvl; i < level; i++) update[i].span[i]++;
+        size++;
+    }
+
+    // Removes the entry; false if there is none with exactly this rating and name
+    boolean remove(String name, double rating) {
+        Node[] update = new Node[MAX_LEVEL];
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && before(x.next[i], rating, name)) x = x.next[i];
+            update[i] = x;
+        }
+        x = x.next[0];
+        if (x == null || x.rating != rating || !x.name.equals(name)) return false;
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == x) {
+                update[i].span[i] += x.span[i] - 1;
+                update[i].next[i] = x.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) level--;
+        size--;
+        return true;
+    }
+
+    // 1-based rank of the entry, or 0 if it is not in the list
+    int rank(String name, double rating) {
+        Node x = head;
+        int r = 0;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && (before(x.next[i], rating, name)
+                    || (x.next[i].rating == rating && x.next[i].name.equals(name)))) {
+                r += x.span[i];
+                x = x.next[i];
+            }
+            if (x != head && x.name.equals(name)) return r;
+        }
+        return 0;
+    }
+
+    // Calls out for up to limit entries starting at the 1-based rank `from`
+    void range(int from, int limit, RangeConsumer out) {
+        if (from < 1 || from > size || limit <= 0) return;
+        Node x = head;
+        int traversed = 0;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && traversed + x.span[i] <= from) {
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+            if (traversed == from) break;
+        }
+        for (int r = from; x != null && r < from + limit; r++, x = x.next[0]) {
+            out.accept(x.name, x.rating, r);
+        }
+    }
+
+    interface RangeConsumer {
+        void accept(String name, double rating, int rank);
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.websocketsql;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/replays")
+public class ReplayController {
+    private final ReplayService replays;
+
+    public ReplayController(ReplayService replays) {
+        this.replays = replays;
+    }
+
+    @GetMapping
+    public List<Map<String, Object>> list() throws IOException {
+        return replays.list();
+    }
+
+    // Full re-simulation of one recording with its desync checks; watch it instead at /spectate?match=<id>
+    @GetMapping("/{id}/verify")
+    public ResponseEntity<?> verify(@PathVariable String id) {
+        try {
+            Map<String, Object> result = replays.verify(id);
+            return result != null ? ResponseEntity.ok(result) : ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Could not replay " + id + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.websocketsql;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Match recordings on disk: one MatchRecorder log per match in game.replay.dir when game.replay.enabled
+ * is set. Recordings are created and mapped on a background thread and handed to their match when ready;
+ * the same thread maps each log ahead of its write position, and flushes, trims and prunes finished
+ * recordings to game.replay.max-files, so neither the matchmaker nor a match's tick thread does file I/O.
+ */
+@Component
+public class ReplayService {
+    static final String SUFFIX = ".pkr";
+    // Match ids are UUIDs; anything else is not a file name we wrote
+    private static final Pattern ID = Pattern.compile("[0-9a-fA-F-]{36}");
+
+    private final boolean enabled;
+    private final Path dir;
+    private final int maxBytes;
+    private final int maxFiles;
+    private final ExecutorService io;
+
+    public ReplayService(@Value("${game.replay.enabled:false}") boolean enabled,
+                         @Value("${game.replay.dir:replays}") String dir,
+                         @Value("${game.replay.max-bytes:8388608}") int maxBytes,
+                         @Value("${game.replay.max-files:200}") int maxFiles) {
+        this.enabled = enabled;
+        this.dir = Paths.get(dir);
+        this.maxBytes = Math.max(64 * 1024, maxBytes);
+        this.maxFiles = maxFiles;
+        this.io = Executors.newSingleThreadExecutor(r -> { Thread t = new Thread(r, "replay-io"); t.setDaemon(true); return t; });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        io.shutdown();
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    // Creates the recorder for a new match stepping dt seconds per tick on the I/O thread and passes it to
+    // ready there. Nothing is passed if recording is off or the file cannot be created.
+    void open(String matchId, double dt, Consumer<MatchRecorder> ready) {
+        if (!enabled) return;
+        try {
+            io.execute(() -> {
+                try {
+                    Files.createDirectories(dir);
+                    ready.accept(new MatchRecorder(dir.resolve(matchId + SUFFIX), matchId, dt, maxBytes, io));
+                } catch (IOException | RuntimeException ex) {
+                    System.out.println("[REPLAY] Could not start recording for match " + matchId + ": " + ex.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // Shutting down
+        }
+    }
+
+    // Marks the recording complete and hands the file to the I/O thread; called on the match's tick thread.
+    void finish(MatchRecorder recorder) {
+        if (!recorder.finish()) return;
+        int length = recorder.length();
+        io.execute(() -> {
+            try {
+                recorder.close();
+                System.out.println("[REPLAY] Saved " + recorder.path + " (" + length + " bytes"
+                    + (recorder.isTruncated() ? ", truncated" : "") + ")");
+                prune();
+            } catch (IOException ex) {
+                System.out.println("[REPLAY] Could not finish " + recorder.path + ": " + ex.getMessage());
+            }
+        });
+    }
+
+    // Drops a recording its match could not use
+    void discard(MatchRecorder recorder) {
+        io.execute(() -> {
+            try {
+                recorder.abandon();
+                Files.deleteIfExists(recorder.path);
+            } catch (IOException ex) {
+                System.out.println("[REPLAY] Could not delete " + recorder.path + ": " + ex.getMessage());
+            }
+        });
+    }
+
+    // Path of a recording, or null if the id is not a match id or there is no such recording
+    Path find(String matchId) {
+        if (matchId == null || !ID.matcher(matchId).matches()) return null;
+        Path p = dir.resolve(matchId + SUFFIX);
+        return Files.isRegularFile(p) ? p : null;
+    }
+
+    // Parses a recording; null if there is none with that id
+    MatchReplay load(String matchId) throws IOException {
+        Path p = find(matchId);
+        return p != null ? MatchReplay.open(p) : null;
+    }
+
+    // Recordings on disk, newest first
+    public List<Map<String, Object>> list() throws IOException {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Path p : recordings()) {
+            String file = p.getFileName().toString();
+            Map<String, Object> m = new HashMap<>();
+            m.put("id", file.substring(0, file.length() - SUFFIX.length()));
+            m.put("bytes", Files.size(p));
+            m.put("modified", Files.getLastModifiedTime(p).toMillis());
+            out.add(m);
+        }
+        return out;
+    }
+
+    // Re-simulates a whole recording as fast as possible and reports whether it matched the live match
+    public Map<String, Object> verify(String matchId) throws IOException {
+        MatchReplay r = load(matchId);
+        if (r == null) return null;
+        long t0 = System.nanoTime();
+        while (r.step()) { }
+        long nanos = System.nanoTime() - t0;
+        Map<String, Object> m = new HashMap<>();
+        m.put("id", r.matchId);
+        m.put("bytes", r.bytes);
+        m.put("finished", r.finished);
+        m.put("truncated", r.truncated);
+        m.put("ticks", r.ticks);
+        m.put("scoreA", r.scoreA);
+        m.put("scoreB", r.scoreB);
+        m.put("gameOver", r.gameOver);
+        if (r.gameOver) {
+            m.put("finalScoreA", r.finalScoreA);
+            m.put("finalScoreB", r.finalScoreB);
+            m.put("winner", r.winner);
+        }
+        m.put("checksums", r.checksums);
+        m.put("checksumMismatches", r.checksumMismatches);
+        m.put("firstMismatchTick", r.firstMismatchTick);
+        m.put("goalMismatches", r.goalMismatches);
+        m.put("simulatedMs", nanos / 1_000_000.0);
+        m.put("speedup", nanos > 0 ? r.ticks * r.dt * 1e9 / nanos : 0);
+        return m;
+    }
+
+    private List<Path> recordings() throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return files;
+        try (Stream<Path> s = Files.list(dir)) {
+            s.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(ReplayService::modified).reversed());
+        return files;
+    }
+
+    // Keep the newest maxFiles recordings
+    private void prune() throws IOException {
+        if (maxFiles <= 0) return;
+        List<Path> files = recordings();
+        for (int i = maxFiles; i < files.size(); i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    private static long modified(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toMillis();
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+}
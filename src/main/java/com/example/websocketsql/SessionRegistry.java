@@ -0,0 +1,86 @@
+package com.example.websocketsql;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Every open game connection, found in O(1) by session id or by player name; a connection knows its own
+ * match (ClientSession.match) and the match knows its sessions. Per-connection state and attributes live in
+ * the ClientSession, so a lookup from any direction ends at the same object.
+ * A player name is bound to one connection at a time: joining again from a new connection takes over the old
+ * one's match and queue place, and closing the old connection afterwards no longer affects the player.
+ */
+@Component
+public class SessionRegistry {
+    private final Map<String, ClientSession> bySession = new ConcurrentHashMap<>();
+    private final Map<String, ClientSession> byPlayer = new ConcurrentHashMap<>();
+    // byPlayer's size, kept as names are bound and unbound
+    private final AtomicInteger playerCount = new AtomicInteger();
+
+    ClientSession opened(WebSocketSession session) {
+        ClientSession cs = ClientSession.of(session);
+        bySession.put(session.getId(), cs);
+        return cs;
+    }
+
+    // Binds the player name to this connection (the join); a previous connection of the player is superseded
+    void bind(ClientSession cs, String name) {
+        cs.playerName = name;
+        bySession.putIfAbsent(cs.session.getId(), cs);
+        ClientSession prev = byPlayer.put(name, cs);
+        if (prev == null) playerCount.incrementAndGet();
+        else if (prev != cs) cs.takeOver(prev);
+    }
+
+    // Marks the connection closed. Returns the player it was bound to, or null if it had none or was superseded;
+    // the caller removes that player from the game and then calls unbind().
+    String closed(WebSocketSession session) {
+        ClientSession cs = bySession.remove(session.getId());
+        if (cs == null) cs = ClientSession.of(session);
+        cs.close();
+        String name = cs.playerName;
+        return name != null && byPlayer.get(name) == cs ? name : null;
+    }
+
+    void unbind(String name, ClientSession cs) {
+        if (byPlayer.remove(name, cs)) playerCount.decrementAndGet();
+    }
+
+    ClientSession session(String sessionId) { return bySession.get(sessionId); }
+
+    ClientSession player(String name) { return byPlayer.get(name); }
+
+    // The player's current match, or null
+    Match matchOf(String name) {
+        ClientSession cs = byPlayer.get(name);
+        return cs != null ? cs.match : null;
+    }
+
+    Collection<ClientSession> players() { return byPlayer.values(); }
+
+    // Every open connection, joined or not
+    Collection<ClientSession> connections() { return bySession.values(); }
+
+    public int getPlayerCount() { return playerCount.get(); }
+
+    public int getSessionCount() { return bySession.size(); }
+
+    // Connections per state (walks the registry; for the admin endpoint)
+    Map<String, Object> summary() {
+        Map<ClientSession.State, Integer> counts = new EnumMap<>(ClientSession.State.class);
+        for (ClientSession.State s : ClientSession.State.values()) counts.put(s, 0);
+        for (ClientSession cs : bySession.values()) counts.merge(cs.state(), 1, Integer::sum);
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("sessions", bySession.size());
+        m.put("players", byPlayer.size());
+        for (Map.Entry<ClientSession.State, Integer> e : counts.entrySet()) m.put(e.getKey().name().toLowerCase(), e.getValue());
+        return m;
+    }
+}
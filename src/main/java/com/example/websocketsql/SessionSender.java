@@ -0,0 +1,249 @@
+package com.example.websocketsql;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers frames to sessions through each session's bounded outbox.
+ * Frames are encoded once and shared by every recipient. State snapshots use latest-wins:
+ * a newer one replaces an unsent older one. Other frames (matched, roster, gameover...) are
+ * queued and delivered in order. A client that cannot keep up is disconnected or has its
+ * reliable frames dropped, depending on game.outbox.slow-consumer, instead of stalling the
+ * sender threads for everybody else.
+ * With game.outbox.adaptive, a match sends each connection only as many snapshots as it keeps up with
+ * (admitState): the rate drops while the connection has a backlog or a high RTT and comes back once it recovers.
+ */
+@Component
+public class SessionSender {
+    public enum SlowConsumerPolicy { DISCONNECT, DROP }
+
+    private final int maxFrames;
+    private final long maxBytes;
+    private final long sendTimeoutMs;
+    private final SlowConsumerPolicy policy;
+    private final ExecutorService pool;
+    // --- ADAPTIVE STATE RATE ---
+    private final boolean adaptive;
+    private final int maxDivisor;
+    private final long rttLimitNanos;
+    private final int recoverAfter;
+
+    // Every connection gets every snapshot
+    public SessionSender(int maxFrames, long maxBytes, long sendTimeoutMs, String policy, int threads) {
+        this(maxFrames, maxBytes, sendTimeoutMs, policy, threads, false, 1, 0, 0);
+    }
+
+    @Autowired
+    public SessionSender(@Value("${game.outbox.max-frames:64}") int maxFrames,
+                         @Value("${game.outbox.max-bytes:262144}") long maxBytes,
+                         @Value("${game.outbox.send-timeout-ms:2000}") long sendTimeoutMs,
+                         @Value("${game.outbox.slow-consumer:disconnect}") String policy,
+                         @Value("${game.outbox.threads:0}") int threads,
+                         @Value("${game.outbox.adaptive:true}") boolean adaptive,
+                         @Value("${game.outbox.max-rate-divisor:4}") int maxDivisor,
+                         @Value("${game.outbox.rtt-limit-ms:300}") long rttLimitMs,
+                         @Value("${game.outbox.recover-after:30}") int recoverAfter) {
+        this.adaptive = adaptive;
+        this.maxDivisor = Math.max(1, maxDivisor);
+        this.rttLimitNanos = TimeUnit.MILLISECONDS.toNanos(rttLimitMs);
+        this.recoverAfter = Math.max(1, recoverAfter);
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.policy = SlowConsumerPolicy.valueOf(policy.trim().toUpperCase());
+        int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(n, r -> { Thread t = new Thread(r, "ws-sender-" + counter.getAndIncrement()); t.setDaemon(true); return t; });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /** Immutable pre-encoded frame, safe to hand to any number of sessions. */
+    public static final class Frame {
+        // WebSocket ping stamped with the time it is written, for RTT (see LinkStats)
+        static final Frame PING = new Frame(null, new byte[8]);
+
+        final String text;
+        final byte[] bin;
+        final int size;
+        private final TextMessage textMessage;
+
+        private Frame(String text, byte[] bin) {
+            this.text = text;
+            this.bin = bin;
+            this.size = text != null ? text.length() : bin.length;
+            this.textMessage = text != null ? new TextMessage(text) : null;
+        }
+
+        public static Frame text(String json) { return new Frame(json, null); }
+        public static Frame binary(byte[] bytes) { return new Frame(null, bytes); }
+
+        // TextMessage is immutable and shared; BinaryMessage wraps a ByteBuffer whose position the container
+        // advances while writing, so every send gets its own read-only view of the shared bytes
+        WebSocketMessage<?> message() {
+            if (this == PING) return new PingMessage(ByteBuffer.allocate(8).putLong(0, System.nanoTime()));
+            return textMessage != null ? textMessage : new BinaryMessage(ByteBuffer.wrap(bin).asReadOnlyBuffer());
+        }
+    }
+
+    // Latest-wins delivery for state snapshots
+    public void sendState(ClientSession cs, Frame frame) {
+        if (frame == null) return;
+        Frame replaced = cs.latest.getAndSet(frame);
+        if (replaced != null && cs.replacedStates.incrementAndGet() > maxFrames) {
+            slowConsumer(cs, "state frames not drained");
+            return;
+        }
+        schedule(cs);
+    }
+
+    // In-order delivery for everything that must not be skipped
+    public void sendReliable(ClientSession cs, Frame frame) {
+        if (frame == null) return;
+        if (cs.queuedFrames.get() + 1 > maxFrames || cs.queuedBytes.get() + frame.size > maxBytes) {
+            if (policy == SlowConsumerPolicy.DROP) {
+                System.out.println("[OUTBOX] Dropping frame for slow session " + cs.session.getId());
+                return;
+            }
+            slowConsumer(cs, "outbox full");
+            return;
+        }
+        // Keep ordering with a state snapshot that was queued before this frame
+        Frame pendingState = cs.latest.getAndSet(null);
+        if (pendingState != null) enqueue(cs, pendingState);
+        enqueue(cs, frame);
+        schedule(cs);
+    }
+
+    public void sendReliable(ClientSession cs, String json) {
+        sendReliable(cs, Frame.text(json));
+    }
+
+    // Queues an RTT probe behind whatever the connection is already waiting for
+    void ping(ClientSession cs) {
+        // Not into an outbox that is already half full: the probe would only add to the backlog it measures
+        if (cs.queuedFrames.get() >= maxFrames / 2) return;
+        sendReliable(cs, Frame.PING);
+    }
+
+    // Whether the connection gets this snapshot; called by the tick building it, once per snapshot per connection.
+    // Behind means a state frame was replaced before it could be written since the last one that was, reliable frames
+    // are piling up, or the RTT is over the limit.
+    boolean admitState(ClientSession cs) {
+        if (!adaptive) return true;
+        long srtt = cs.link.srttNanos();
+        boolean behind = cs.replacedStates.get() > 0 || cs.queuedBytes.get() > maxBytes / 4
+            || (rttLimitNanos > 0 && srtt > rttLimitNanos);
+        return cs.link.admit(behind, maxDivisor, recoverAfter);
+    }
+
+    // For a snapshot that would be a keyframe: false while the connection is degraded and its last keyframe
+    // may still be on its way
+    boolean admitKeyframe(ClientSession cs, long now) {
+        return !adaptive || cs.link.admitKeyframe(now);
+    }
+
+    private void enqueue(ClientSession cs, Frame frame) {
+        cs.queuedFrames.incrementAndGet();
+        cs.queuedBytes.addAndGet(frame.size);
+        cs.queue.add(frame);
+    }
+
+    private void schedule(ClientSession cs) {
+        if (cs.draining.compareAndSet(false, true)) {
+            try {
+                pool.execute(() -> drain(cs));
+            } catch (Exception ex) {
+                cs.draining.set(false);
+            }
+        }
+    }
+
+    // Only one drain runs per session at a time, so sends never overlap on the same socket
+    private void drain(ClientSession cs) {
+        WebSocketSession s = cs.session;
+        try {
+            while (true) {
+                Frame f = cs.queue.poll();
+                if (f != null) {
+                    cs.queuedFrames.decrementAndGet();
+                    cs.queuedBytes.addAndGet(-f.size);
+                } else {
+                    f = cs.latest.getAndSet(null);
+                    if (f == null) break;
+                    cs.replacedStates.set(0);
+                }
+                if (!s.isOpen()) {
+                    cs.clearOutbox();
+                    return;
+                }
+                applySendTimeout(cs);
+                if (f == Frame.PING) cs.link.pingSent();
+                GameEvents.SessionSend event = new GameEvents.SessionSend();
+                event.begin();
+                s.sendMessage(f.message());
+                event.end();
+                if (event.shouldCommit()) {
+                    event.sessionId = s.getId();
+                    event.player = cs.playerName;
+                    Match m = cs.match;
+                    event.matchId = m != null ? m.id : null;
+                    event.bytes = f.size;
+                    event.binary = f.bin != null;
+                    event.outboxDepth = cs.outboxDepth();
+                    event.commit();
+                }
+            }
+        } catch (IllegalStateException | IOException ex) {
+            // Broken socket: close it; the handler's afterConnectionClosed does the game-side cleanup
+            cs.clearOutbox();
+            try { s.close(CloseStatus.SESSION_NOT_RELIABLE); } catch (Exception ignored) {}
+        } finally {
+            cs.draining.set(false);
+        }
+        // Frames may have arrived between the last poll and releasing the flag
+        if (!cs.queue.isEmpty() || cs.latest.get() != null) schedule(cs);
+    }
+
+    private void slowConsumer(ClientSession cs, String reason) {
+        if (policy == SlowConsumerPolicy.DROP) {
+            cs.replacedStates.set(0);
+            return;
+        }
+        System.out.println("[OUTBOX] Disconnecting slow session " + cs.session.getId() + ": " + reason);
+        cs.clearOutbox();
+        try { cs.session.close(CloseStatus.SESSION_NOT_RELIABLE); } catch (Exception ignored) {}
+    }
+
+    // Bound how long a blocked socket can hold a sender thread (Tomcat blocking-send timeout)
+    private void applySendTimeout(ClientSession cs) {
+        if (cs.sendTimeoutApplied) return;
+        cs.sendTimeoutApplied = true;
+        if (!(cs.session instanceof NativeWebSocketSession)) return;
+        try {
+            javax.websocket.Session nativeSession = ((NativeWebSocketSession) cs.session).getNativeSession(javax.websocket.Session.class);
+            if (nativeSession != null) {
+                nativeSession.getUserProperties().put("org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT", sendTimeoutMs);
+            }
+        } catch (Exception ignored) {}
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.websocketsql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs matches headless, as fast as the CPU allows: no Spring, sockets, database or timers.
+ * Each match is a PhysicsWorld with two scripted bots that chase the ball, with the same goal
+ * handling as Match (ball reset, cars back to kickoff). Useful for profiling the physics and for
+ * checking that a physics change still produces sensible games.
+ *
+ * Usage: java -cp target/classes com.example.websocketsql.SimulationRunner [matches] [ticks] [seed]
+ */
+public final class SimulationRunner {
+
+    private SimulationRunner() {}
+
+    public static void main(String[] args) {
+        int matches = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 5400; // 3 minutes at ~30 Hz
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+
+        Random rnd = new Random(seed);
+        List<SimMatch> sims = new ArrayList<>(matches);
+        for (int i = 0; i < matches; i++) sims.add(new SimMatch(rnd.nextLong()));
+
+        System.out.println("[SIM] " + matches + " matches x " + ticks + " ticks, seed " + seed);
+        long start = System.nanoTime();
+        for (int t = 0; t < ticks; t++) {
+            for (SimMatch m : sims) m.tick(t);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long goals = 0, scoreA = 0, scoreB = 0;
+        for (SimMatch m : sims) {
+            goals += m.scoreA + m.scoreB;
+            scoreA += m.scoreA;
+            scoreB += m.scoreB;
+        }
+        double secs = elapsed / 1e9;
+        long matchTicks = (long) matches * ticks;
+        System.out.printf("[SIM] %.2f s, %.0f match ticks/s, %.1f matches/s (%.0fx real time overall)%n",
+            secs, matchTicks / secs, matches / secs, ticks * TickRates.DEFAULT.dt / (secs / matches));
+        System.out.println("[SIM] goals " + goals + " (A " + scoreA + ", B " + scoreB + ")");
+    }
+
+    // One bot match. Rules are the subset of Match that affects physics: goals, ball reset, kickoff spots.
+    private static final class SimMatch {
+        final PhysicsWorld world = new PhysicsWorld(2);
+        final int a = world.addCar("botA", 180, 300, 0);
+        final int b = world.addCar("botB", 860, 400, Math.PI);
+        final InputSlot input = new InputSlot();
+        final PhysicsWorld.GoalListener goals = this::onGoal;
+        final Random rnd;
+        int scoreA, scoreB;
+
+        SimMatch(long seed) {
+            this.rnd = new Random(seed);
+        }
+
+        void tick(int t) {
+            // Bot A attacks the right goal, bot B the left one
+            drive(a, t, PhysicsWorld.WIDTH);
+            drive(b, t, 0);
+            world.step(TickRates.DEFAULT.step, goals);
+        }
+
+        // Steer towards a point just behind the ball (seen from the target goal), with some noise
+        private void drive(int c, int t, double goalX) {
+            PhysicsWorld.Ball ball = world.ball;
+            double behind = goalX > ball.x ? -30 : 30;
+            double tx = ball.x + behind, ty = ball.y;
+            double want = Math.atan2(ty - world.y[c], tx - world.x[c]);
+            double diff = Math.atan2(Math.sin(want - world.angle[c]), Math.cos(want - world.angle[c]));
+            InputSlot in = input;
+            in.seq = t + 1;
+            in.steer = Math.max(-1, Math.min(1, diff * 2 + (rnd.nextDouble() - 0.5) * 0.4));
+            in.throttle = Math.abs(diff) > 2.5 ? -1 : 1;
+            in.boost = Math.abs(diff) < 0.3 && world.boostFuel[c] > 20 && rnd.nextInt(4) == 0;
+            in.brake = Math.abs(diff) > 1.5 && rnd.nextInt(3) == 0;
+            in.jump = rnd.nextInt(200) == 0;
+            world.setInput(c, in);
+        }
+
+        private void onGoal(int side) {
+            if (side == PhysicsWorld.GOAL_LEFT) scoreB++; else scoreA++;
+            world.ball.reset();
+            world.respawn(a, 180, 300, 0);
+            world.respawn(b, 860, 400, Math.PI);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.websocketsql;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writer for the compact binary snapshot protocol (opt-in with {"type":"join","proto":"bin"}).
+ * All values are little-endian. Frames:
+ *
+ *   ROSTER: u8 op=1, u8 flags, u8 rosterVersion, u16 count, count x (u16 index, u8 color, u8 nameLen, name utf8)
+ *   STATE:  u8 op=2, u8 flags, u32 tick, u32 serverMs, u8 rosterVersion, u8 scoreA, u8 scoreB, u16 countdownMs, u32 timerMs,
+ *           ball (i16 x, i16 y, u16 z), u16 count, count x (u16 index, i16 x, i16 y, u16 z, u16 angle, u32 lastSeq, u8 boost)
+ *   DELTA:  u8 op=3, u8 flags, u32 tick, u32 serverMs, u32 baseTick, u8 rosterVersion, u8 fieldMask, then only the header fields whose
+ *           bit is set (scores, countdownMs, timerMs, ball x, ball y, ball z), u16 count of changed players,
+ *           count x (u16 index, u8 mask, then only the changed fields in STATE order)
+ *
+ * serverMs is the server's game time of the snapshot (steps run times the step length), which clients
+ * interpolate by; ticks are only identifiers, as not every tick is sent.
+ * STATE is a keyframe. DELTA encodes the changes against a snapshot the client has acknowledged
+ * (the "ack" field of its input/ack messages). The codec keeps the last RING_SIZE snapshots and
+ * falls back to a keyframe when the acknowledged snapshot is gone, the roster changed, or the
+ * set of players differs.
+ *
+ * Positions are 1/8 px fixed point, heights 1/64 unit, angles 1/65536 of a turn and boost fuel half-units.
+ * Player names and colours are only sent in the roster; snapshots refer to players by roster index.
+ * One codec instance is used by one tick thread at a time and reuses its buffer between frames.
+ */
+public final class SnapshotCodec {
+    public static final int OP_ROSTER = 1;
+    public static final int OP_STATE = 2;
+    public static final int OP_DELTA = 3;
+
+    // flags
+    public static final int FLAG_FREE_PLAY = 1; // state of the global free-play loop rather than a match
+
+    // DELTA header field bits
+    static final int D_SCORES = 1, D_COUNTDOWN = 2, D_TIMER = 4, D_BALL_X = 8, D_BALL_Y = 16, D_BALL_Z = 32;
+    // DELTA player field bits
+    static final int D_X = 1, D_Y = 2, D_Z = 4, D_ANGLE = 8, D_SEQ = 16, D_BOOST = 32;
+
+    // ~1 second of history at 30 Hz (in ticks, sent or not); acks older than this get a keyframe
+    static final int RING_SIZE = 32;
+
+    // colours in the roster
+    public static final int COLOR_GRAY = 0, COLOR_BLUE = 1, COLOR_RED = 2;
+
+    static final double POS_SCALE = 8.0;
+    static final double Z_SCALE = 64.0;
+    static final double ANGLE_SCALE = 65536.0 / (2 * Math.PI);
+    static final double BOOST_SCALE = 2.0;
+
+    private ByteBuffer buf = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    public static int quantizePos(double v) {
+        return clamp((int) Math.round(v * POS_SCALE), Short.MIN_VALUE, Short.MAX_VALUE);
+    }
+
+    public static int quantizeZ(double z) {
+        return clamp((int) Math.round(z * Z_SCALE), 0, 0xFFFF);
+    }
+
+    public static int quantizeAngle(double a) {
+        return ((int) Math.round(a * ANGLE_SCALE)) & 0xFFFF;
+    }
+
+    public static int quantizeBoost(double fuel) {
+        return clamp((int) Math.round(fuel * BOOST_SCALE), 0, 0xFF);
+    }
+
+    private static int clamp(int v, int lo, int hi) {
+        return v < lo ? lo : (v > hi ? hi : v);
+    }
+
+    public SnapshotCodec beginRoster(int flags, int rosterVersion, int count) {
+        buf.clear();
+        buf.put((byte) OP_ROSTER).put((byte) flags).put((byte) rosterVersion).putShort((short) count);
+        return this;
+    }
+
+    public SnapshotCodec rosterEntry(int index, int color, String name) {
+        byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+        int len = Math.min(utf8.length, 255);
+        ensure(4 + len);
+        buf.putShort((short) index).put((byte) color).put((byte) len).put(utf8, 0, len);
+        return this;
+    }
+
+    // Copy the finished frame out so it can be shared by every recipient
+    public byte[] finish() {
+        byte[] out = new byte[buf.position()];
+        buf.flip();
+        buf.get(out);
+        buf.clear();
+        return out;
+    }
+
+    // --- SNAPSHOT HISTORY AND DELTAS ---
+    private final Snapshot[] ring = new Snapshot[RING_SIZE];
+    private Snapshot current;
+    private byte[] keyframe;
+    // Frames already encoded for the current snapshot, keyed by baseline tick, so clients sharing a baseline share bytes
+    private final long[] cachedBase = new long[4];
+    private final byte[][] cachedDelta = new byte[4][];
+    private int cached = 0;
+
+    // Start a new snapshot for the given tick; fill it with put() and then ask frameFor() per client
+    public Snapshot begin(int flags, long tick, long serverMs, int rosterVersion, int scoreA, int scoreB, long countdownMs, long timerMs,
+                          double ballX, double ballY, double ballZ, int rosterSize) {
+        int slot = (int) (tick & (RING_SIZE - 1));
+        Snapshot s = ring[slot];
+        if (s == null) s = ring[slot] = new Snapshot();
+        s.reset(flags, tick, serverMs, rosterVersion, scoreA, scoreB, countdownMs, timerMs, ballX, ballY, ballZ, rosterSize);
+        current = s;
+        keyframe = null;
+        cached = 0;
+        return s;
+    }
+
+    // Full keyframe of the current snapshot, encoded at most once per tick
+    public byte[] keyframe() {
+        if (keyframe == null) {
+            Snapshot s = current;
+            buf.clear();
+            buf.put((byte) OP_STATE).put((byte) s.flags).putInt((int) s.tick).putInt((int) s.serverMs).put((byte) s.rosterVersion)
+                .put((byte) s.scoreA).put((byte) s.scoreB).putShort((short) s.countdownMs).putInt((int) s.timerMs)
+                .putShort((short) s.ballX).putShort((short) s.ballY).putShort((short) s.ballZ)
+                .putShort((short) s.count);
+            for (int i = 0; i < s.present.length; i++) {
+                if (!s.present[i]) continue;
+                ensure(15);
+                buf.putShort((short) i).putShort((short) s.x[i]).putShort((short) s.y[i]).putShort((short) s.z[i])
+                    .putShort((short) s.angle[i]).putInt(s.seq[i]).put((byte) s.boost[i]);
+            }
+            keyframe = finish();
+        }
+        return keyframe;
+    }
+
+    // Whether frameFor(ackTick) can be a delta: the acknowledged snapshot is still in the ring and has the same players
+    public boolean hasBaseline(long ackTick) {
+        Snapshot cur = current;
+        if (ackTick < 0 || ackTick >= cur.tick || cur.tick - ackTick >= RING_SIZE) return false;
+        Snapshot base = ring[(int) (ackTick & (RING_SIZE - 1))];
+        return base != null && base.tick == ackTick && cur.sameShape(base);
+    }
+
+    // Frame for a client whose last acknowledged tick is ackTick (negative = nothing acknowledged)
+    public byte[] frameFor(long ackTick) {
+        if (!hasBaseline(ackTick)) return keyframe();
+        Snapshot cur = current;
+        Snapshot base = ring[(int) (ackTick & (RING_SIZE - 1))];
+        for (int i = 0; i < cached; i++) {
+            if (cachedBase[i] == ackTick) return cachedDelta[i];
+        }
+        byte[] delta = encodeDelta(cur, base);
+        if (cached < cachedBase.length) {
+            cachedBase[cached] = ackTick;
+            cachedDelta[cached] = delta;
+            cached++;
+        }
+        return delta;
+    }
+
+    private byte[] encodeDelta(Snapshot cur, Snapshot base) {
+        int mask = 0;
+        if (cur.scoreA != base.scoreA || cur.scoreB != base.scoreB) mask |= D_SCORES;
+        if (cur.countdownMs != base.countdownMs) mask |= D_COUNTDOWN;
+        if (cur.timerMs != base.timerMs) mask |= D_TIMER;
+        if (cur.ballX != base.ballX) mask |= D_BALL_X;
+        if (cur.ballY != base.ballY) mask |= D_BALL_Y;
+        if (cur.ballZ != base.ballZ) mask |= D_BALL_Z;
+        buf.clear();
+        buf.put((byte) OP_DELTA).put((byte) cur.flags).putInt((int) cur.tick).putInt((int) cur.serverMs).putInt((int) base.tick)
+            .put((byte) cur.rosterVersion).put((byte) mask);
+        if ((mask & D_SCORES) != 0) buf.put((byte) cur.scoreA).put((byte) cur.scoreB);
+        if ((mask & D_COUNTDOWN) != 0) buf.putShort((short) cur.countdownMs);
+        if ((mask & D_TIMER) != 0) buf.putInt((int) cur.timerMs);
+        if ((mask & D_BALL_X) != 0) buf.putShort((short) cur.ballX);
+        if ((mask & D_BALL_Y) != 0) buf.putShort((short) cur.ballY);
+        if ((mask & D_BALL_Z) != 0) buf.putShort((short) cur.ballZ);
+        int countPos = buf.position();
+        buf.putShort((short) 0);
+        int changed = 0;
+        for (int i = 0; i < cur.present.length; i++) {
+            if (!cur.present[i]) continue;
+            int pm = 0;
+            if (cur.x[i] != base.x[i]) pm |= D_X;
+            if (cur.y[i] != base.y[i]) pm |= D_Y;
+            if (cur.z[i] != base.z[i]) pm |= D_Z;
+            if (cur.angle[i] != base.angle[i]) pm |= D_ANGLE;
+            if (cur.seq[i] != base.seq[i]) pm |= D_SEQ;
+            if (cur.boost[i] != base.boost[i]) pm |= D_BOOST;
+            if (pm == 0) continue;
+            ensure(16);
+            buf.putShort((short) i).put((byte) pm);
+            if ((pm & D_X) != 0) buf.putShort((short) cur.x[i]);
+            if ((pm & D_Y) != 0) buf.putShort((short) cur.y[i]);
+            if ((pm & D_Z) != 0) buf.putShort((short) cur.z[i]);
+            if ((pm & D_ANGLE) != 0) buf.putShort((short) cur.angle[i]);
+            if ((pm & D_SEQ) != 0) buf.putInt(cur.seq[i]);
+            if ((pm & D_BOOST) != 0) buf.put((byte) cur.boost[i]);
+            changed++;
+        }
+        buf.putShort(countPos, (short) changed);
+        return finish();
+    }
+
+    /** Quantized copy of one tick's state, indexed by roster index. Reused from the ring, so no per-tick allocation once warm. */
+    public static final class Snapshot {
+        long tick, serverMs;
+        int flags, rosterVersion, scoreA, scoreB, countdownMs;
+        long timerMs;
+        int ballX, ballY, ballZ;
+        int count;
+        boolean[] present = new boolean[0];
+        int[] x = new int[0], y = new int[0], z = new int[0], angle = new int[0], seq = new int[0], boost = new int[0];
+
+        void reset(int flags, long tick, long serverMs, int rosterVersion, int scoreA, int scoreB, long countdownMs, long timerMs,
+                   double ballX, double ballY, double ballZ, int rosterSize) {
+            this.flags = flags;
+            this.tick = tick;
+            this.serverMs = serverMs;
+            this.rosterVersion = rosterVersion & 0xFF;
+            this.scoreA = scoreA & 0xFF;
+            this.scoreB = scoreB & 0xFF;
+            this.countdownMs = (int) Math.max(0, Math.min(countdownMs, 0xFFFF));
+            this.timerMs = Math.max(0, timerMs);
+            this.ballX = quantizePos(ballX);
+            this.ballY = quantizePos(ballY);
+            this.ballZ = quantizeZ(ballZ);
+            this.count = 0;
+            if (present.length != rosterSize) {
+                present = new boolean[rosterSize];
+                x = new int[rosterSize]; y = new int[rosterSize]; z = new int[rosterSize];
+                angle = new int[rosterSize]; seq = new int[rosterSize]; boost = new int[rosterSize];
+            } else {
+                java.util.Arrays.fill(present, false);
+            }
+        }
+
+        public void put(int index, double px, double py, double pz, double pangle, int lastSeq, double boostFuel) {
+            if (index < 0 || index >= present.length) return;
+            if (!present[index]) count++;
+            present[index] = true;
+            x[index] = quantizePos(px);
+            y[index] = quantizePos(py);
+            z[index] = quantizeZ(pz);
+            angle[index] = quantizeAngle(pangle);
+            seq[index] = lastSeq;
+            boost[index] = quantizeBoost(boostFuel);
+        }
+
+        // Deltas are only defined between snapshots with the same roster and the same players present
+        boolean sameShape(Snapshot o) {
+            return rosterVersion == o.rosterVersion && flags == o.flags && count == o.count
+                && java.util.Arrays.equals(present, o.present);
+        }
+    }
+
+    private void ensure(int more) {
+        if (buf.remaining() >= more) return;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + more)).order(ByteOrder.LITTLE_ENDIAN);
+        buf.flip();
+        bigger.put(buf);
+        buf = bigger;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.websocketsql;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams a recorded match to a spectator: /spectate?match=<id>&speed=<n>.
+ * The replay is re-simulated on a shared streaming thread, `speed` recorded ticks per frame at the tick
+ * rate it was recorded at, and each frame goes out as the same JSON state message a player receives, so the web client
+ * can render it unchanged. Messages from spectators are ignored.
+ */
+@Component
+public class SpectatorHandler extends TextWebSocketHandler {
+    private final ReplayService replays;
+    private final SessionSender sender;
+    private final int maxSpeed;
+    private final Map<String, ScheduledFuture<?>> streams = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService streamer = Executors.newSingleThreadScheduledExecutor(
+        r -> { Thread t = new Thread(r, "replay-stream"); t.setDaemon(true); return t; });
+
+    public SpectatorHandler(ReplayService replays, SessionSender sender,
+                            @Value("${game.replay.max-speed:16}") int maxSpeed) {
+        this.replays = replays;
+        this.sender = sender;
+        this.maxSpeed = Math.max(1, maxSpeed);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streamer.shutdownNow();
+    }
+
+    @Override
+    public void afterConnectionEstablished(@NonNull WebSocketSession session) throws Exception {
+        ClientSession cs = ClientSession.of(session);
+        String matchId = null;
+        int speed = 1;
+        if (session.getUri() != null) {
+            Map<String, java.util.List<String>> params = UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams();
+            matchId = params.containsKey("match") ? params.get("match").get(0) : null;
+            try {
+                if (params.containsKey("speed")) speed = Integer.parseInt(params.get("speed").get(0));
+            } catch (NumberFormatException ignored) {
+                // keep real time
+            }
+        }
+        MatchReplay replay;
+        try {
+            replay = replays.load(matchId);
+        } catch (Exception ex) {
+            System.out.println("[REPLAY] Could not open replay " + matchId + ": " + ex.getMessage());
+            replay = null;
+        }
+        if (replay == null) {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("no such replay"));
+            return;
+        }
+        System.out.println("[REPLAY] Spectator " + session.getId() + " watching " + matchId + " at " + speed + "x");
+        Stream stream = new Stream(cs, replay, Math.max(1, Math.min(maxSpeed, speed)));
+        streams.put(session.getId(), streamer.scheduleAtFixedRate(stream, 0, Math.round(replay.dt * 1e9), TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void afterConnectionClosed(@NonNull WebSocketSession session, @NonNull CloseStatus status) throws Exception {
+        stop(session.getId());
+    }
+
+    public int getSpectatorCount() { return streams.size(); }
+
+    private void stop(String sessionId) {
+        ScheduledFuture<?> f = streams.remove(sessionId);
+        if (f != null) f.cancel(false);
+    }
+
+    private final class Stream implements Runnable {
+        final ClientSession cs;
+        final MatchReplay replay;
+        final int speed;
+        boolean started;
+        // Frames sent; a frame goes out every recorded tick length whatever the speed
+        long frames;
+
+        Stream(ClientSession cs, MatchReplay replay, int speed) {
+            this.cs = cs;
+            this.replay = replay;
+            this.speed = speed;
+        }
+
+        @Override
+        public void run() {
+            try {
+                boolean more = true;
+                for (int i = 0; i < speed && more; i++) more = replay.step();
+                if (!started) {
+                    sender.sendReliable(cs, replay.matchedJson());
+                    started = true;
+                }
+                sender.sendState(cs, SessionSender.Frame.text(replay.stateJson(Math.round(frames++ * replay.dt * 1000))));
+                if (!more) {
+                    sender.sendReliable(cs, replay.gameOverJson());
+                    stop(cs.session.getId());
+                }
+            } catch (RuntimeException ex) {
+                // A damaged or half-written log: stop this stream only
+                System.out.println("[REPLAY] Replay " + replay.matchId + " stopped: " + ex);
+                stop(cs.session.getId());
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.websocketsql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-phase tick timings for one tick thread (a match engine shard, or the free-play GameLoop).
+ * Tick code marks phase boundaries with System.nanoTime(); phases it spends time in more than once
+ * per tick are summed by the caller and recorded once, so counts stay at one sample per tick.
+ * Profiles of several threads are merged when read rather than shared while ticking.
+ */
+final class TickProfile {
+    enum Phase {
+        // Reading published inputs and integrating the cars
+        INPUT,
+        // Ball integration, walls, goals and corner patches
+        PHYSICS,
+        // Car-car and car-ball contacts
+        COLLISION,
+        // Building the JSON string and/or the binary snapshot
+        SERIALIZE,
+        // Handing frames to the session outboxes
+        ENQUEUE,
+        // Whole tick
+        TOTAL,
+        // How late the tick started compared to its schedule
+        LAG
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+
+    TickProfile() {
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new LatencyHistogram();
+    }
+
+    void record(Phase phase, long nanos) {
+        histograms[phase.ordinal()].record(nanos);
+    }
+
+    // Record the time since `since` and return the current time, so consecutive phases chain
+    long mark(Phase phase, long since) {
+        long now = System.nanoTime();
+        histograms[phase.ordinal()].record(now - since);
+        return now;
+    }
+
+    void reset() {
+        for (LatencyHistogram h : histograms) h.reset();
+    }
+
+    // Add this profile's samples to another one (used to merge the shard profiles on read)
+    void addTo(TickProfile target) {
+        for (int i = 0; i < histograms.length; i++) target.histograms[i].add(histograms[i]);
+    }
+
+    Map<String, Object> summary() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        for (Phase p : PHASES) m.put(p.name().toLowerCase(), histograms[p.ordinal()].summary());
+        return m;
+    }
+
+    /**
+     * Running per-phase totals of a single match: plain counters, written only by the thread ticking the match,
+     * so they cost no atomics. Reads from /admin/matches are approximate while the match ticks.
+     */
+    static final class Totals {
+        private final long[] count = new long[PHASES.length];
+        private final long[] sumNanos = new long[PHASES.length];
+        private final long[] maxNanos = new long[PHASES.length];
+
+        void record(Phase phase, long nanos) {
+            int i = phase.ordinal();
+            count[i]++;
+            sumNanos[i] += nanos;
+            if (nanos > maxNanos[i]) maxNanos[i] = nanos;
+        }
+
+        // Mean and max in microseconds per phase
+        Map<String, Object> summary() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            for (Phase p : PHASES) {
+                int i = p.ordinal();
+                long n = count[i];
+                Map<String, Object> ph = new LinkedHashMap<>();
+                ph.put("meanUs", n == 0 ? 0.0 : Math.round(sumNanos[i] / n / 100.0) / 10.0);
+                ph.put("maxUs", Math.round(maxNanos[i] / 100.0) / 10.0);
+                m.put(p.name().toLowerCase(), ph);
+            }
+            return m;
+        }
+    }
+}
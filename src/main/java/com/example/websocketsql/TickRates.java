@@ -0,0 +1,56 @@
+package com.example.websocketsql;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How often the game simulates and how often clients are sent its state, set apart:
+ * game.sim.hz is the physics step rate of matches and free play, game.snapshot.hz the rate snapshots go out at.
+ * A step is a whole number of milliseconds, so the simulation rate is rounded to one: 30 Hz gives the 33 ms
+ * step (PhysicsWorld.DT) the game has always run at, and the physics as tuned. A snapshot goes out every
+ * sendEvery-th step, so the snapshot rate is rounded to a whole divisor of the simulation rate (and never
+ * exceeds it). Snapshots carry the server's game time, which clients interpolate by.
+ */
+@Component
+public class TickRates {
+    // Rates the server ran at before they were configurable (one 33 ms step, one snapshot per step)
+    static final TickRates DEFAULT = new TickRates(30, 30);
+
+    final double simHz;
+    final double dt;
+    final long stepNanos;
+    final int sendEvery;
+    // dt and its friction factors, computed once
+    final PhysicsWorld.Step step;
+
+    @Autowired
+    public TickRates(@Value("${game.sim.hz:30}") double simHz,
+                     @Value("${game.snapshot.hz:30}") double snapshotHz) {
+        if (!(simHz > 0) || !(snapshotHz > 0)) throw new IllegalArgumentException("game.sim.hz and game.snapshot.hz must be positive");
+        long stepMs = Math.max(1, Math.round(1000 / simHz));
+        this.simHz = 1000.0 / stepMs;
+        this.dt = stepMs / 1000.0;
+        this.stepNanos = TimeUnit.MILLISECONDS.toNanos(stepMs);
+        this.sendEvery = (int) Math.max(1, Math.round(this.simHz / snapshotHz));
+        this.step = new PhysicsWorld.Step(dt);
+    }
+
+    double snapshotHz() { return simHz / sendEvery; }
+
+    // Whether the step numbered `tick` sends a snapshot
+    boolean sends(long tick) { return tick % sendEvery == 0; }
+
+    Map<String, Object> summary() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("simHz", simHz);
+        m.put("snapshotHz", snapshotHz());
+        m.put("sendEvery", sendEvery);
+        m.put("stepMs", stepNanos / 1_000_000.0);
+        return m;
+    }
+}
@@ -15,11 +15,14 @@ public class WebSocketConfig implements WebSocketConfigurer {
     private MessageHandler messageHandler;
     @Autowired
     private GameHandler gameHandler;
+    @Autowired
+    private SpectatorHandler spectatorHandler;
 
     @Override
     @SuppressWarnings("null")
     public void registerWebSocketHandlers(@NonNull WebSocketHandlerRegistry registry) {
         registry.addHandler(messageHandler, "/ws").setAllowedOrigins("*");
         registry.addHandler(gameHandler, "/ws").setAllowedOrigins("*");
+        registry.addHandler(spectatorHandler, "/spectate").setAllowedOrigins("*");
     }
 }